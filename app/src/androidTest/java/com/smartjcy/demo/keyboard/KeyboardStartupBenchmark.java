@@ -0,0 +1,196 @@
+package com.smartjcy.demo.keyboard;
+
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.View;
+
+import androidx.test.core.app.ActivityScenario;
+import androidx.test.espresso.UiController;
+import androidx.test.espresso.ViewAction;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.safekeyboard.KeyboardStartupStats;
+import com.smartjcy.demo.R;
+
+import org.hamcrest.Matcher;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static androidx.test.espresso.Espresso.onView;
+import static androidx.test.espresso.action.ViewActions.click;
+import static androidx.test.espresso.matcher.RootMatchers.isDialog;
+import static androidx.test.espresso.matcher.ViewMatchers.isDisplayed;
+import static androidx.test.espresso.matcher.ViewMatchers.withId;
+import static org.junit.Assert.fail;
+
+/**
+ * 键盘启动耗时: bind 模式 (MainActivity 中的 SafeKeyboard) 和 dialog 模式 (弹窗中的 SimpleKeyboardView)
+ * 各测一次冷启动和多次热启动.
+ * <p>
+ * 使用 Test Orchestrator 运行 (见 app/build.gradle), 每个测试方法在新的进程中执行, 因此每个方法中的
+ * 第一次启动是冷启动: 布局缓存、类加载、资源都没有预热. 热启动在同一进程中重复启动, 取中位数.
+ * 每次启动都点击输入框弹出键盘, 记录以下耗时 (毫秒):
+ * <ul>
+ * <li>launch: ActivityScenario.launch 返回的耗时, bind 模式包含 SafeKeyboard 的构造</li>
+ * <li>init: 构造 SafeKeyboard / SimpleKeyboardView 到 initKeyboard 完成</li>
+ * <li>firstDraw: 开始显示键盘到键盘第一次绘制完成, 即点击输入框后的响应时间</li>
+ * </ul>
+ * 结果输出到 logcat (tag 为 KeyboardStartup), 同时作为 instrumentation status 输出, 可以用
+ * {@code adb shell am instrument -r} 查看.
+ * <p>
+ * 这里的冷启动是进程内的冷启动, 不包含 zygote fork 和 Application 创建; 测量进程级冷启动需要 Macrobenchmark,
+ * 它要求 AGP 7 以上, 本工程暂不引入.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class KeyboardStartupBenchmark {
+
+    private static final String TAG = "KeyboardStartup";
+    private static final int WARM_RUNS = 10;
+    private static final long TIMEOUT_MS = 10_000;
+    // 与 androidx.benchmark 相同, 使用 2 作为中间结果的 status code, 不会被当作测试结果
+    private static final int STATUS_IN_PROGRESS = 2;
+
+    private interface StatsGetter {
+        KeyboardStartupStats get(MainActivity activity);
+    }
+
+    private static final class Result {
+        double launchMillis;
+        double initMillis;
+        double firstDrawMillis;
+    }
+
+    @Test
+    public void bindCold() {
+        report("bind_cold", new Result[]{launchBind()});
+    }
+
+    @Test
+    public void bindWarm() {
+        launchBind();   // 冷启动, 不计入
+        Result[] results = new Result[WARM_RUNS];
+        for (int i = 0; i < WARM_RUNS; i++) {
+            results[i] = launchBind();
+        }
+        report("bind_warm", results);
+    }
+
+    @Test
+    public void dialogCold() {
+        report("dialog_cold", new Result[]{launchDialog()});
+    }
+
+    @Test
+    public void dialogWarm() {
+        launchDialog(); // 冷启动, 不计入
+        Result[] results = new Result[WARM_RUNS];
+        for (int i = 0; i < WARM_RUNS; i++) {
+            results[i] = launchDialog();
+        }
+        report("dialog_warm", results);
+    }
+
+    private Result launchBind() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            long launched = SystemClock.elapsedRealtimeNanos();
+            onView(withId(R.id.et_pwd)).perform(requestFocus(), click());
+            Result result = awaitStats(scenario, activity -> activity.getSafeKeyboard().getStartupStats());
+            result.launchMillis = (launched - start) / 1e6;
+            return result;
+        }
+    }
+
+    private Result launchDialog() {
+        long start = SystemClock.elapsedRealtimeNanos();
+        try (ActivityScenario<MainActivity> scenario = ActivityScenario.launch(MainActivity.class)) {
+            long launched = SystemClock.elapsedRealtimeNanos();
+            onView(withId(R.id.btn_dialog)).perform(click());
+            onView(withId(R.id.cet_pwd)).inRoot(isDialog()).perform(requestFocus(), click());
+            Result result = awaitStats(scenario, activity -> activity.getSimpleKeyboardView().getStartupStats());
+            result.launchMillis = (launched - start) / 1e6;
+            return result;
+        }
+    }
+
+    /**
+     * 等待键盘启动的所有阶段完成 (包括显示动画), 在主线程中读取结果
+     */
+    private static Result awaitStats(ActivityScenario<MainActivity> scenario, StatsGetter getter) {
+        AtomicReference<Result> ref = new AtomicReference<>();
+        long deadline = SystemClock.uptimeMillis() + TIMEOUT_MS;
+        while (SystemClock.uptimeMillis() < deadline) {
+            scenario.onActivity(activity -> {
+                KeyboardStartupStats stats = getter.get(activity);
+                if (stats == null || !stats.isComplete()) return;
+                Log.i(TAG, stats.toString());
+                Result result = new Result();
+                result.initMillis = stats.getElapsedMillis(KeyboardStartupStats.PHASE_INIT_KEYBOARD);
+                result.firstDrawMillis = stats.getTimeToFirstDrawMillis();
+                ref.set(result);
+            });
+            if (ref.get() != null) {
+                return ref.get();
+            }
+            SystemClock.sleep(16);
+        }
+        fail("Keyboard startup did not complete in " + TIMEOUT_MS + "ms");
+        return null;
+    }
+
+    private static void report(String name, Result[] results) {
+        double[] launch = new double[results.length];
+        double[] init = new double[results.length];
+        double[] firstDraw = new double[results.length];
+        for (int i = 0; i < results.length; i++) {
+            launch[i] = results[i].launchMillis;
+            init[i] = results[i].initMillis;
+            firstDraw[i] = results[i].firstDrawMillis;
+        }
+        Bundle status = new Bundle();
+        status.putDouble(name + "_launch_ms", median(launch));
+        status.putDouble(name + "_init_ms", median(init));
+        status.putDouble(name + "_first_draw_ms", median(firstDraw));
+        Log.i(TAG, String.format(Locale.US, "%s (median of %d): launch=%.2fms, init=%.2fms, firstDraw=%.2fms",
+                name, results.length, median(launch), median(init), median(firstDraw)));
+        InstrumentationRegistry.getInstrumentation().sendStatus(STATUS_IN_PROGRESS, status);
+    }
+
+    private static double median(double[] values) {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int mid = sorted.length / 2;
+        return sorted.length % 2 == 1 ? sorted[mid] : (sorted[mid - 1] + sorted[mid]) / 2;
+    }
+
+    /**
+     * 键盘只在已获得焦点的输入框被点击时弹出, 点击前先让输入框获得焦点
+     */
+    private static ViewAction requestFocus() {
+        return new ViewAction() {
+            @Override
+            public Matcher<View> getConstraints() {
+                return isDisplayed();
+            }
+
+            @Override
+            public String getDescription() {
+                return "request focus";
+            }
+
+            @Override
+            public void perform(UiController uiController, View view) {
+                view.requestFocus();
+                uiController.loopMainThreadUntilIdle();
+            }
+        };
+    }
+}
@@ -1,6 +1,7 @@
 package com.smartjcy.demo.keyboard;
 
 import android.os.Bundle;
+import android.util.Log;
 import android.view.Gravity;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -26,6 +27,7 @@ import com.smartjcy.demo.R;
  */
 
 public class MainActivity extends FragmentActivity {
+    private static final String TAG = "KeyboardDemo";
     EditText etName,etPwd;
     Button btnDialog;
 
@@ -60,6 +62,8 @@ public class MainActivity extends FragmentActivity {
         safeKeyboard.setCustomName(getStringRes(R.string.activity_name))
                 .setCustomLogo(R.mipmap.ic_launcher)
                 .setCustomCloseIcon(R.mipmap.keyboard_stop);
+        //启动耗时, 冷启动和热启动分别记录一次对比
+        safeKeyboard.getStartupStats().setListener(stats -> Log.i(TAG, "bind: " + stats));
     }
 
     //===============================以dialog模式使用================================================//
@@ -81,6 +85,7 @@ public class MainActivity extends FragmentActivity {
         mSimpleKeyboardView.setCustomName(getStringRes(R.string.dialog_keyboard))
                 .setCustomLogo(R.mipmap.icon_protect);
 //                .setCustomCloseIcon(R.mipmap.keyboard_stop);
+        mSimpleKeyboardView.getStartupStats().setListener(stats -> Log.i(TAG, "dialog: " + stats));
         //确认
         tv_sure.setOnClickListener(v -> dialog.dismiss());
         //取消
@@ -114,6 +119,15 @@ public class MainActivity extends FragmentActivity {
         }
     }
 
+    //===============================供启动耗时测试 (KeyboardStartupBenchmark) 使用================================================//
+    SafeKeyboard getSafeKeyboard() {
+        return safeKeyboard;
+    }
+
+    SimpleKeyboardView getSimpleKeyboardView() {
+        return mSimpleKeyboardView;
+    }
+
     private String getStringRes(@StringRes int stringId){
         return this.getResources().getString(stringId);
     }
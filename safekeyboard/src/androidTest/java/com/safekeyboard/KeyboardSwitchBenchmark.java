@@ -0,0 +1,109 @@
+package com.safekeyboard;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.View;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.filters.LargeTest;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 切换键盘的耗时: 在字母、符号、数字符号键盘之间循环 setKeyboard, 对比跳过与不跳过 requestLayout.
+ * <p>
+ * 每次切换后与一帧中的处理相同: 有 layout 请求时对整个键盘容器重新 measure/layout, 然后把容器绘制到 Bitmap.
+ * 在主线程中执行, 结果为每次切换的耗时中位数和 90 分位 (微秒) 以及触发重新布局的次数,
+ * 输出到 logcat (tag 为 KeyboardSwitch), 同时作为 instrumentation status 输出.
+ */
+@RunWith(AndroidJUnit4.class)
+@LargeTest
+public class KeyboardSwitchBenchmark {
+
+    private static final String TAG = "KeyboardSwitch";
+    private static final int WARMUP_SWITCHES = 60;
+    private static final int MEASURED_SWITCHES = 600;
+    // 与 androidx.benchmark 相同, 使用 2 作为中间结果的 status code, 不会被当作测试结果
+    private static final int STATUS_IN_PROGRESS = 2;
+    private static final int[] LAYOUTS = {
+            R.xml.keyboard_letter, R.xml.keyboard_symbol, R.xml.keyboard_num_symbol
+    };
+
+    @Test
+    public void switchWithLayoutSkip() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> run("skip", true));
+    }
+
+    @Test
+    public void switchWithoutLayoutSkip() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> run("no_skip", false));
+    }
+
+    private static void run(String name, boolean skipEnabled) {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        View root = LayoutInflater.from(context).inflate(R.layout.layout_keyboard_containor, null);
+        SafeKeyboardView keyboardView = root.findViewById(R.id.safeKeyboardLetter);
+        keyboardView.setLayoutRequestSkipEnabled(skipEnabled);
+        SafeKeyboardLayout[] keyboards = new SafeKeyboardLayout[LAYOUTS.length];
+        for (int i = 0; i < LAYOUTS.length; i++) {
+            keyboards[i] = KeyboardLayoutCache.obtain(context, LAYOUTS[i]);
+        }
+        int width = context.getResources().getDisplayMetrics().widthPixels;
+        keyboardView.setKeyboard(keyboards[0]);
+        layout(root, width);
+        Bitmap bitmap = Bitmap.createBitmap(root.getWidth(), root.getHeight(), Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+        root.draw(canvas);
+
+        long[] samples = new long[MEASURED_SWITCHES];
+        int layoutCount = 0;
+        for (int i = 0; i < WARMUP_SWITCHES + MEASURED_SWITCHES; i++) {
+            long start = SystemClock.elapsedRealtimeNanos();
+            keyboardView.setKeyboard(keyboards[(i + 1) % keyboards.length]);
+            boolean layoutRequested = root.isLayoutRequested();
+            if (layoutRequested) {
+                layout(root, width);
+            }
+            root.draw(canvas);
+            long elapsed = SystemClock.elapsedRealtimeNanos() - start;
+            if (i >= WARMUP_SWITCHES) {
+                samples[i - WARMUP_SWITCHES] = elapsed;
+                if (layoutRequested) layoutCount++;
+            }
+        }
+        bitmap.recycle();
+        if (skipEnabled) {
+            // 三个键盘宽高相同, 切换时都应跳过重新布局
+            assertTrue("layout requested " + layoutCount + " times", layoutCount == 0);
+        }
+
+        Arrays.sort(samples);
+        double median = samples[samples.length / 2] / 1e3;
+        double p90 = samples[samples.length * 9 / 10] / 1e3;
+        Bundle status = new Bundle();
+        status.putDouble(name + "_median_us", median);
+        status.putDouble(name + "_p90_us", p90);
+        status.putLong(name + "_layouts", layoutCount);
+        Log.i(TAG, String.format(Locale.US, "%s: median=%.1fus, p90=%.1fus, layouts=%d/%d",
+                name, median, p90, layoutCount, MEASURED_SWITCHES));
+        InstrumentationRegistry.getInstrumentation().sendStatus(STATUS_IN_PROGRESS, status);
+    }
+
+    private static void layout(View root, int width) {
+        root.measure(View.MeasureSpec.makeMeasureSpec(width, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED));
+        root.layout(0, 0, root.getMeasuredWidth(), root.getMeasuredHeight());
+    }
+}
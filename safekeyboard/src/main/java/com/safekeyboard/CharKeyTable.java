@@ -0,0 +1,69 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import java.util.List;
+
+/**
+ * 一个键盘布局中的单字符按键表, 用于符号键盘的随机排列
+ * <p>
+ * 在布局加载时找出 label 为单个字符、按键值与之相同的普通按键 (不含空格和功能键), 记录它们的下标和原始 label、按键值.
+ * 随机排列时只按下标交换这些按键的 label 和按键值, 按键位置不变.
+ */
+final class CharKeyTable {
+
+    private final int[] keyIndices;
+    private final CharSequence[] labels;
+    private final int[] codes;
+
+    private CharKeyTable(int[] keyIndices, CharSequence[] labels, int[] codes) {
+        this.keyIndices = keyIndices;
+        this.labels = labels;
+        this.codes = codes;
+    }
+
+    static CharKeyTable build(List<Keyboard.Key> keys, KeyRoleTable roleTable) {
+        int size = keys.size();
+        int[] indices = new int[size];
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+            Keyboard.Key key = keys.get(i);
+            if (roleTable.roleAt(i) == KeyRole.NORMAL && key.codes.length == 1
+                    && key.label != null && key.label.length() == 1 && key.codes[0] == key.label.charAt(0)) {
+                indices[count++] = i;
+            }
+        }
+        int[] keyIndices = new int[count];
+        CharSequence[] labels = new CharSequence[count];
+        int[] codes = new int[count];
+        for (int i = 0; i < count; i++) {
+            Keyboard.Key key = keys.get(indices[i]);
+            keyIndices[i] = indices[i];
+            labels[i] = key.label;
+            codes[i] = key.codes[0];
+        }
+        return new CharKeyTable(keyIndices, labels, codes);
+    }
+
+    int size() {
+        return keyIndices.length;
+    }
+
+    int[] getKeyIndices() {
+        return keyIndices;
+    }
+
+    /**
+     * 按排列重新分配按键内容: 第 i 个按键显示原来第 order[i] 个按键的 label 和按键值
+     *
+     * @param keys 使用此表的布局的按键 (可以是副本)
+     */
+    void apply(List<Keyboard.Key> keys, int[] order) {
+        for (int i = 0; i < keyIndices.length; i++) {
+            Keyboard.Key key = keys.get(keyIndices[i]);
+            int from = order[i];
+            key.label = labels[from];
+            key.codes[0] = codes[from];
+        }
+    }
+}
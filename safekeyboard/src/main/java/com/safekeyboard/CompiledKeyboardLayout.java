@@ -0,0 +1,159 @@
+package com.safekeyboard;
+
+import android.content.res.Resources;
+import android.inputmethodservice.Keyboard;
+import android.util.DisplayMetrics;
+
+import java.util.List;
+
+/**
+ * 编译期生成的键盘布局 (见 keyboard-layouts.gradle 和生成的 CompiledKeyboardLayouts)
+ * <p>
+ * 布局中各按键的宽度、间距、高度在编译期已经按 Keyboard 的继承规则 (Keyboard -> Row -> Key) 展开,
+ * 运行时只需要按当前屏幕宽高换算成像素, 计算方式与 {@link Keyboard} 解析 xml 时一致.
+ * <p>
+ * 长度编码为一个 int: 高 4 位为单位, 低 28 位为数值.
+ */
+final class CompiledKeyboardLayout {
+
+    static final int UNIT_SHIFT = 28;
+    static final int VALUE_MASK = (1 << UNIT_SHIFT) - 1;
+    static final int UNIT_FRACTION = 0;     // 屏幕宽度或高度的比例, 数值单位为万分之一, 即 "8.5%p" -> 850
+    static final int UNIT_PX = 1;           // 数值单位为 0.01px
+    static final int UNIT_DP = 2;           // 数值单位为 0.01dp
+    static final int UNIT_DIMEN = 3;        // 数值为 dimens 中的下标
+
+    // rows 中每一行占 ROW_STRIDE 个 int
+    static final int ROW_STRIDE = 3;
+    static final int ROW_KEY_COUNT = 0;
+    static final int ROW_HEIGHT = 1;
+    static final int ROW_VERTICAL_GAP = 2;
+
+    // keys 中每个按键占 KEY_STRIDE 个 int
+    static final int KEY_STRIDE = 4;
+    static final int KEY_WIDTH = 0;
+    static final int KEY_GAP = 1;
+    static final int KEY_HEIGHT = 2;
+    static final int KEY_FLAGS = 3;
+
+    // KEY_FLAGS 低 8 位为 edgeFlags
+    static final int EDGE_FLAGS_MASK = 0xff;
+    static final int FLAG_STICKY = 1 << 8;
+    static final int FLAG_MODIFIER = 1 << 9;
+    static final int FLAG_REPEATABLE = 1 << 10;
+
+    private static final float SEARCH_DISTANCE = 1.8f;     // 与 Keyboard 相同
+
+    private final int defaultKeyWidth;
+    private final int defaultVerticalGap;
+    private final int[] rows;
+    private final int[] keys;
+    private final int[][] codes;
+    private final String[] labels;
+    private final int[] labelResIds;
+    private final int[] dimens;
+
+    /**
+     * @param defaultKeyWidth    Keyboard 节点的 keyWidth, 用于计算按键的邻近范围
+     * @param defaultVerticalGap Keyboard 节点的 verticalGap, 最后一行下面不计入键盘高度
+     * @param labelResIds        label 为 @string 引用时的资源 id, 其余为 0; 没有任何引用时为 null
+     * @param dimens             布局中引用到的 @dimen 资源 id
+     */
+    CompiledKeyboardLayout(int defaultKeyWidth, int defaultVerticalGap, int[] rows, int[] keys, int[][] codes,
+                           String[] labels, int[] labelResIds, int[] dimens) {
+        this.defaultKeyWidth = defaultKeyWidth;
+        this.defaultVerticalGap = defaultVerticalGap;
+        this.rows = rows;
+        this.keys = keys;
+        this.codes = codes;
+        this.labels = labels;
+        this.labelResIds = labelResIds;
+        this.dimens = dimens;
+    }
+
+    /**
+     * 按当前屏幕尺寸创建按键
+     *
+     * @param row          按键所属的行, 只用于构造 Key
+     * @param out          创建好的按键按顺序添加到这里
+     * @param modifierKeys shift 和 alt 键添加到这里
+     * @return 键盘最小宽度
+     */
+    int inflateKeys(Resources res, Keyboard.Row row, List<Keyboard.Key> out, List<Keyboard.Key> modifierKeys) {
+        DisplayMetrics dm = res.getDisplayMetrics();
+        int displayWidth = dm.widthPixels;
+        int displayHeight = dm.heightPixels;
+        int minWidth = 0;
+        int y = 0;
+        int keyIndex = 0;
+        for (int r = 0; r < rows.length; r += ROW_STRIDE) {
+            int x = 0;
+            for (int end = keyIndex + rows[r + ROW_KEY_COUNT]; keyIndex < end; keyIndex++) {
+                int base = keyIndex * KEY_STRIDE;
+                int flags = keys[base + KEY_FLAGS];
+                Keyboard.Key key = new Keyboard.Key(row);
+                key.gap = resolve(res, keys[base + KEY_GAP], displayWidth);
+                key.width = resolve(res, keys[base + KEY_WIDTH], displayWidth);
+                key.height = resolve(res, keys[base + KEY_HEIGHT], displayHeight);
+                key.x = x + key.gap;
+                key.y = y;
+                key.codes = codes[keyIndex].clone();
+                key.label = labelResIds != null && labelResIds[keyIndex] != 0
+                        ? res.getText(labelResIds[keyIndex]) : labels[keyIndex];
+                key.edgeFlags = flags & EDGE_FLAGS_MASK;
+                key.sticky = (flags & FLAG_STICKY) != 0;
+                key.modifier = (flags & FLAG_MODIFIER) != 0;
+                key.repeatable = (flags & FLAG_REPEATABLE) != 0;
+                out.add(key);
+                if (key.codes[0] == Keyboard.KEYCODE_SHIFT || key.codes[0] == Keyboard.KEYCODE_ALT) {
+                    modifierKeys.add(key);
+                }
+                x = key.x + key.width;
+                if (x > minWidth) {
+                    minWidth = x;
+                }
+            }
+            // 与 Keyboard 相同, verticalGap 按屏幕宽度换算, keyHeight 按屏幕高度换算
+            y += resolve(res, rows[r + ROW_VERTICAL_GAP], displayWidth);
+            y += resolve(res, rows[r + ROW_HEIGHT], displayHeight);
+        }
+        return minWidth;
+    }
+
+    /**
+     * 键盘总高度, 与 Keyboard 一样不计最后一行下面的 verticalGap
+     */
+    int getHeight(Resources res) {
+        DisplayMetrics dm = res.getDisplayMetrics();
+        int y = 0;
+        for (int r = 0; r < rows.length; r += ROW_STRIDE) {
+            y += resolve(res, rows[r + ROW_VERTICAL_GAP], dm.widthPixels);
+            y += resolve(res, rows[r + ROW_HEIGHT], dm.heightPixels);
+        }
+        return y - resolve(res, defaultVerticalGap, dm.widthPixels);
+    }
+
+    /**
+     * 按键邻近范围 (距离的平方), 与 Keyboard 相同
+     */
+    int getProximityThreshold(Resources res) {
+        int threshold = (int) (resolve(res, defaultKeyWidth, res.getDisplayMetrics().widthPixels) * SEARCH_DISTANCE);
+        return threshold * threshold;
+    }
+
+    private int resolve(Resources res, int spec, int base) {
+        int value = spec & VALUE_MASK;
+        switch (spec >>> UNIT_SHIFT) {
+            case UNIT_FRACTION:
+                return Math.round(base * (value / 10000f));
+            case UNIT_PX:
+                return value / 100;
+            case UNIT_DP:
+                return (int) (value / 100f * res.getDisplayMetrics().density);
+            case UNIT_DIMEN:
+                return res.getDimensionPixelOffset(dimens[value]);
+            default:
+                throw new IllegalStateException("Unknown length unit: " + (spec >>> UNIT_SHIFT));
+        }
+    }
+}
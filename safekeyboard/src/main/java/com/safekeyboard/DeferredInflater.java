@@ -0,0 +1,107 @@
+package com.safekeyboard;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 键盘容器的延迟 inflate
+ * <p>
+ * KeyboardView 只能在主线程创建, 所以这里不是放到工作线程, 而是推迟到主线程空闲时 (界面首帧绘制之后) 再 inflate,
+ * 不占用 Activity / Dialog 打开时的那一帧. 容器就绪前需要用到 View 的操作通过 {@link #runWhenReady(Runnable)}
+ * 或 {@link #runUrgently(Runnable)} 排队, 就绪后按顺序执行. 只在主线程使用.
+ */
+final class DeferredInflater implements MessageQueue.IdleHandler {
+
+    private final Runnable inflateAction;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final List<Runnable> pendingActions = new ArrayList<>();
+    private final Runnable inflateRun = this::inflateNow;
+    private boolean scheduled;
+    private boolean ready;
+
+    /**
+     * @param inflateAction 真正 inflate 容器并初始化 View 的操作
+     */
+    DeferredInflater(Runnable inflateAction) {
+        this.inflateAction = inflateAction;
+    }
+
+    /**
+     * 在主线程空闲时 inflate
+     */
+    void schedule() {
+        if (ready || scheduled) return;
+        scheduled = true;
+        Looper.myQueue().addIdleHandler(this);
+    }
+
+    /**
+     * 立即 inflate, 并执行排队中的操作
+     */
+    void inflateNow() {
+        if (ready) return;
+        cancel();
+        inflateAction.run();
+        ready = true;
+        for (int i = 0; i < pendingActions.size(); i++) {
+            pendingActions.get(i).run();
+        }
+        pendingActions.clear();
+    }
+
+    /**
+     * 容器已就绪时立即执行, 否则排队, 等到容器 inflate 后执行
+     */
+    void runWhenReady(Runnable action) {
+        if (ready) {
+            action.run();
+            return;
+        }
+        pendingActions.add(action);
+    }
+
+    /**
+     * 与 {@link #runWhenReady(Runnable)} 相同, 但不再等待主线程空闲, 尽快 inflate (用于用户操作, 如点击输入框)
+     */
+    void runUrgently(Runnable action) {
+        runWhenReady(action);
+        if (!ready) {
+            handler.removeCallbacks(inflateRun);
+            handler.post(inflateRun);
+        }
+    }
+
+    boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 取消尚未执行的 inflate, 不会清除排队的操作
+     */
+    void cancel() {
+        handler.removeCallbacks(inflateRun);
+        if (scheduled) {
+            scheduled = false;
+            Looper.myQueue().removeIdleHandler(this);
+        }
+    }
+
+    /**
+     * 释放时调用, 丢弃排队的操作
+     */
+    void release() {
+        cancel();
+        pendingActions.clear();
+    }
+
+    @Override
+    public boolean queueIdle() {
+        scheduled = false;
+        inflateNow();
+        return false;
+    }
+}
@@ -0,0 +1,119 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 数字键盘的随机排列
+ * <p>
+ * 数字键的位置 (下标) 在布局加载时确定 (见 {@link SafeKeyboardLayout#getDigitKeyIndices()}), 排列由
+ * {@link SecurePermutations} 生成, 按键 label 使用固定的字符串常量, 不产生新的对象.
+ * 什么时候重新排列由策略决定, 见 {@link SafeKeyboardView#RANDOM_DIGIT_PER_SHOW} 等.
+ * <p>
+ * 下一次要用的排列提前在后台线程生成 (包括 SecureRandom 的初始化), 显示数字键盘时直接取用,
+ * 取走后再在后台准备下一个; 后台还没准备好时才在当前线程生成. 除后台生成外只在主线程使用.
+ * <p>
+ * 只有排列是双缓冲的, 不预先生成排列好的布局或键盘图层: 应用排列只是替换 10 个按键的 label 和按键值,
+ * label 都是常量, 单字符文字的高度在 SafeKeyboardView 中按字符缓存, 重新排列后重绘不需要再测量文字;
+ * 而 setKeyboard 不论是否换成另一个预先生成的布局对象都要调用. 键盘图层依赖按键背景 Drawable 等
+ * 只能在主线程使用的对象, 不能在后台绘制.
+ */
+final class DigitShuffler {
+
+    private static final int DIGIT_COUNT = 10;
+    private static final String[] DIGIT_LABELS = {"0", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
+    // 预先生成的下一个排列, 被取走后为 null
+    private static final AtomicReference<int[]> nextPermutation = new AtomicReference<>();
+    private static final AtomicBoolean preparing = new AtomicBoolean();
+
+    /**
+     * 找出布局中的数字键 (按键值为 '0' - '9'), 按它们在布局中的顺序返回下标
+     */
+    static int[] findDigitKeys(List<Keyboard.Key> keys) {
+        int[] indices = new int[keys.size()];
+        int count = 0;
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            int code = keys.get(i).codes[0];
+            if (code >= '0' && code <= '9') {
+                indices[count++] = i;
+            }
+        }
+        int[] result = new int[count];
+        System.arraycopy(indices, 0, result, 0, count);
+        return result;
+    }
+
+    /**
+     * 数字键盘显示 (弹出键盘或切换到数字键盘) 时调用
+     *
+     * @param fieldId 当前输入框的 id
+     * @return 是否重新排列了
+     */
+    boolean onShow(SafeKeyboardLayout layout, int policy, int fieldId) {
+        switch (policy) {
+            case SafeKeyboardView.RANDOM_DIGIT_PER_SESSION:
+                if (layout.isDigitShuffled()) return false;
+                break;
+            case SafeKeyboardView.RANDOM_DIGIT_PER_FIELD:
+                if (layout.isDigitShuffled() && layout.getDigitShuffleFieldId() == fieldId) return false;
+                break;
+            default:
+                break;
+        }
+        shuffle(layout, fieldId);
+        return true;
+    }
+
+    /**
+     * 在数字键盘上输入一个字符后调用
+     *
+     * @return 是否重新排列了, 重新排列后需要重绘数字键
+     */
+    boolean onKey(SafeKeyboardLayout layout, int policy, int fieldId) {
+        if (policy != SafeKeyboardView.RANDOM_DIGIT_PER_KEYSTROKE) return false;
+        shuffle(layout, fieldId);
+        return true;
+    }
+
+    private void shuffle(SafeKeyboardLayout layout, int fieldId) {
+        int[] indices = layout.getDigitKeyIndices();
+        int n = Math.min(indices.length, DIGIT_COUNT);
+        if (n == 0) return;
+        int[] perm = takePermutation();
+        List<Keyboard.Key> keys = layout.getKeys();
+        for (int i = 0; i < n; i++) {
+            Keyboard.Key key = keys.get(indices[i]);
+            int digit = perm[i];
+            key.label = DIGIT_LABELS[digit];
+            key.codes[0] = '0' + digit;
+        }
+        layout.onDigitsShuffled(fieldId);
+    }
+
+    /**
+     * 在后台线程准备下一个排列, 已经准备好或正在准备时直接返回
+     */
+    static void prepareNext() {
+        if (nextPermutation.get() != null || !preparing.compareAndSet(false, true)) return;
+        KeyboardLayoutLoader.EXECUTOR.execute(() -> {
+            try {
+                nextPermutation.set(SecurePermutations.next(DIGIT_COUNT));
+            } finally {
+                preparing.set(false);
+            }
+        });
+    }
+
+    private static int[] takePermutation() {
+        int[] perm = nextPermutation.getAndSet(null);
+        if (perm == null) {
+            perm = SecurePermutations.next(DIGIT_COUNT);
+        }
+        prepareNext();
+        return perm;
+    }
+}
@@ -0,0 +1,50 @@
+package com.safekeyboard;
+
+/**
+ * 需要重绘的按键
+ * <p>
+ * invalidateKey 只标记按键, onDraw 中按标记的顺序逐个重绘这些按键, 不经过 {@link KeyClipCuller},
+ * 所以单个按键变化时只绘制这一个按键, 耗时与按键总数无关. 同一按键在一帧中多次标记只重绘一次.
+ */
+final class DirtyKeys {
+
+    private boolean[] marked;   // 以按键下标为索引
+    private int[] indices;      // 标记的按键下标, 避免每次遍历所有按键
+    private int count;
+
+    /**
+     * @return 按键数量与上次不同 (键盘布局已变化) 时返回 true, 之前的标记已丢弃, 需要整体重绘
+     */
+    boolean mark(int keyIndex, int keyCount) {
+        boolean layoutChanged = false;
+        if (marked == null || marked.length != keyCount) {
+            marked = new boolean[keyCount];
+            indices = new int[keyCount];
+            count = 0;
+            layoutChanged = true;
+        }
+        if (!marked[keyIndex]) {
+            marked[keyIndex] = true;
+            indices[count++] = keyIndex;
+        }
+        return layoutChanged;
+    }
+
+    int size() {
+        return count;
+    }
+
+    /**
+     * @return 第 i 个需要重绘的按键下标
+     */
+    int get(int i) {
+        return indices[i];
+    }
+
+    void clear() {
+        for (int i = 0; i < count; i++) {
+            marked[indices[i]] = false;
+        }
+        count = 0;
+    }
+}
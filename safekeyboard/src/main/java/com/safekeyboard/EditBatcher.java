@@ -0,0 +1,309 @@
+package com.safekeyboard;
+
+import android.text.Editable;
+import android.view.Choreographer;
+import android.widget.EditText;
+
+import androidx.annotation.NonNull;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * 合并同一帧内的按键输入
+ * <p>
+ * 每次 editable.replace 都会触发所有 TextWatcher、InputFilter、span 变化以及 EditText 重新布局.
+ * 这里把一帧内连续的输入和删除合并为对一个区间的一次 replace, 在下一帧开始时 (绘制之前) 提交,
+ * 所以不会让文字晚一帧显示. 合并后的结果 (文字和光标位置) 与逐个字符修改相同. 只在主线程使用.
+ * <p>
+ * 开启安全输入的输入框 (按对象区分, 没有 id 或 id 相同的输入框互不影响), 内容写入 {@link SecureInputBuffer}, 输入框中只写入同样数量的掩码字符.
+ * 提交时不创建 String. 合并用的缓冲为 char[], 删除的字符立即清零, 提交后、关闭安全输入和释放时整体清零.
+ */
+final class EditBatcher implements Choreographer.FrameCallback {
+
+    private EditText target;
+    // 待替换的区间, replaceStart < 0 表示没有待提交的修改
+    private int replaceStart = -1;
+    private int replaceEnd;
+    private static final int INITIAL_CAPACITY = 16;
+
+    // 合并中待输入的文字, 有效长度为 textLength, 其余部分保持为 0
+    private char[] text = new char[INITIAL_CAPACITY];
+    private int textLength;
+    private final PendingText pendingText = new PendingText();
+    // 开始合并时有选中的内容, 且还没有被输入或删除替换掉
+    private boolean selectionPending;
+    private boolean scheduled;
+    private final Map<EditText, SecureInputBuffer> secureInputs = new IdentityHashMap<>();
+    private final MaskText maskText = new MaskText();
+    private SafeKeyboard.SecureInputDoneListener secureInputListener;
+
+    /**
+     * 在光标处输入一个字符 (有选中内容时替换选中内容)
+     */
+    void insert(EditText editText, char c) {
+        if (!begin(editText)) return;
+        selectionPending = false;
+        if (textLength == text.length) {
+            char[] grown = Arrays.copyOf(text, text.length * 2);
+            Arrays.fill(text, '\0');
+            text = grown;
+        }
+        text[textLength++] = c;
+    }
+
+    /**
+     * 删除光标前的一个字符 (有选中内容时删除选中内容)
+     */
+    void delete(EditText editText) {
+        if (!begin(editText)) return;
+        if (textLength > 0) {
+            text[--textLength] = '\0';
+        } else if (selectionPending) {
+            selectionPending = false;
+        } else if (replaceStart > 0) {
+            replaceStart--;
+        }
+    }
+
+    /**
+     * 删除光标前的全部内容 (有选中内容时连同选中内容)
+     */
+    void deleteToStart(EditText editText) {
+        if (!begin(editText)) return;
+        clearText();
+        selectionPending = false;
+        replaceStart = 0;
+    }
+
+    private boolean begin(EditText editText) {
+        if (editText != target) {
+            flush();
+        }
+        if (replaceStart < 0) {
+            int selStart = editText.getSelectionStart();
+            int selEnd = editText.getSelectionEnd();
+            if (selStart < 0 || selEnd < 0) return false;
+            target = editText;
+            replaceStart = Math.min(selStart, selEnd);
+            replaceEnd = Math.max(selStart, selEnd);
+            selectionPending = replaceStart != replaceEnd;
+        }
+        if (!scheduled) {
+            scheduled = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+        return true;
+    }
+
+    /**
+     * 立即提交合并中的修改, 在切换输入框、隐藏键盘前调用
+     */
+    void flush() {
+        if (scheduled) {
+            scheduled = false;
+            Choreographer.getInstance().removeFrameCallback(this);
+        }
+        if (replaceStart < 0) return;
+        EditText editText = target;
+        int start = replaceStart;
+        int end = replaceEnd;
+        replaceStart = -1;
+        selectionPending = false;
+
+        Editable editable = editText.getText();
+        SecureInputBuffer secure = secureInputs.get(editText);
+        if (editable != null && secure != null && editable.length() != secure.length()) {
+            // 输入框被外部修改过 (如 setText), 掩码与缓冲区对不上, 两边一起清空
+            secure.wipe();
+            editable.clear();
+        }
+        if (editable != null) {
+            // 合并期间文字被外部修改过时, 不能越界
+            end = Math.min(end, editable.length());
+            start = Math.min(start, end);
+            if (start != end || textLength > 0) {
+                if (secure != null) {
+                    // 在 doFrame 中执行, 加密的异常不能抛出去, 否则应用崩溃
+                    try {
+                        secure.replace(start, end, text, textLength);
+                        maskText.length = textLength;
+                        editable.replace(start, end, maskText);
+                        // InputFilter (如 maxLength) 截掉了部分掩码时, 缓冲区中对应的字符也去掉
+                        int excess = secure.length() - editable.length();
+                        if (excess > 0 && excess <= textLength) {
+                            int insertedEnd = start + textLength;
+                            secure.replace(insertedEnd - excess, insertedEnd, text, 0);
+                        }
+                    } catch (RuntimeException e) {
+                        failSecureInput(editText, secure, e);
+                    }
+                } else {
+                    editable.replace(start, end, pendingText);
+                }
+            }
+        }
+        clearText();
+    }
+
+    private void clearText() {
+        Arrays.fill(text, 0, textLength, '\0');
+        textLength = 0;
+    }
+
+    /**
+     * 加密失败: 清零缓冲区和输入框, 然后通知
+     */
+    private void failSecureInput(EditText editText, SecureInputBuffer secure, RuntimeException e) {
+        secure.wipe();
+        Editable editable = editText.getText();
+        if (editable != null) {
+            editable.clear();
+        }
+        if (secureInputListener != null) {
+            secureInputListener.onSecureInputError(editText, e);
+        } else {
+            e.printStackTrace();
+        }
+    }
+
+    void setSecureInputListener(SafeKeyboard.SecureInputDoneListener listener) {
+        secureInputListener = listener;
+    }
+
+    /**
+     * 点击完成时调用: 提交修改, 结束输入框的加密, 密文交给 SecureInputDoneListener
+     */
+    void finishSecureInput(EditText editText) {
+        flush();
+        SecureInputBuffer buffer = secureInputs.get(editText);
+        if (buffer == null || buffer.getCipher() == null || secureInputListener == null) return;
+        byte[] ciphertext;
+        try {
+            ciphertext = buffer.doFinal();
+        } catch (RuntimeException e) {
+            failSecureInput(editText, buffer, e);
+            return;
+        }
+        secureInputListener.onSecureInputDone(editText, ciphertext);
+    }
+
+    /**
+     * 开启安全输入, 已经开启时返回原来的缓冲区. 输入框中已有的内容会被清空
+     */
+    SecureInputBuffer enableSecureInput(EditText editText) {
+        flush();
+        SecureInputBuffer buffer = secureInputs.get(editText);
+        if (buffer == null) {
+            buffer = new SecureInputBuffer();
+            secureInputs.put(editText, buffer);
+            Editable editable = editText.getText();
+            if (editable != null) {
+                editable.clear();
+            }
+        }
+        return buffer;
+    }
+
+    SecureInputBuffer getSecureInput(EditText editText) {
+        return secureInputs.get(editText);
+    }
+
+    /**
+     * 关闭安全输入并清零缓冲区
+     */
+    void disableSecureInput(EditText editText) {
+        flush();
+        SecureInputBuffer buffer = secureInputs.get(editText);
+        if (buffer != null) {
+            buffer.wipe();
+            secureInputs.remove(editText);
+        }
+        Arrays.fill(text, '\0');
+    }
+
+    /**
+     * 提交修改并不再持有输入框, 清零所有安全输入缓冲区
+     */
+    void release() {
+        flush();
+        target = null;
+        for (SecureInputBuffer buffer : secureInputs.values()) {
+            buffer.wipe();
+        }
+        secureInputs.clear();
+        Arrays.fill(text, '\0');
+        secureInputListener = null;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        scheduled = false;
+        flush();
+    }
+
+    /**
+     * 合并中待输入的文字, 只用于普通输入框的提交, 提交时复用同一个对象
+     */
+    private final class PendingText implements CharSequence {
+
+        @Override
+        public int length() {
+            return textLength;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return text[index];
+        }
+
+        @NonNull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new String(text, start, end - start);
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            return new String(text, 0, textLength);
+        }
+    }
+
+    /**
+     * 由掩码字符组成的文字, 长度可变, 提交时复用同一个对象
+     */
+    private static final class MaskText implements CharSequence {
+
+        static final char MASK = '\u2022';
+
+        int length;
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return MASK;
+        }
+
+        @NonNull
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            MaskText sub = new MaskText();
+            sub.length = end - start;
+            return sub;
+        }
+
+        @NonNull
+        @Override
+        public String toString() {
+            char[] chars = new char[length];
+            Arrays.fill(chars, MASK);
+            return new String(chars);
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.safekeyboard;
+
+import androidx.annotation.NonNull;
+
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+
+/**
+ * 基于 JCA {@link Cipher} 的安全输入加密, 如 "AES/GCM/NoPadding"、"AES/CBC/PKCS5Padding"
+ * <p>
+ * 每个字符按 UTF-8 编码后立即送入 Cipher, 输入和输出使用预先分配的数组. 每次 reset 时重新 init,
+ * IV 由 Cipher 自行随机生成 (与 AndroidKeyStore 中要求随机加密的 key 兼容).
+ * 输出格式为 IV + 密文 (GCM 模式密文末尾带 tag), IV 长度由算法决定.
+ */
+public final class JcaSecureInputCipher implements SafeKeyboard.SecureInputCipher {
+
+    /**
+     * 提供加密用的 key, 每次 reset 时获取; 可以返回 AndroidKeyStore 中的 key
+     */
+    public interface KeyProvider {
+        @NonNull
+        Key getKey() throws GeneralSecurityException;
+    }
+
+    private final Cipher cipher;
+    private final KeyProvider keyProvider;
+    private final byte[] input = new byte[4];
+    private byte[] output;
+    private int outputLength;
+    private char pendingHighSurrogate;
+
+    /**
+     * @param transformation Cipher 的算法, 如 "AES/GCM/NoPadding"
+     * @param maxChars       预计的最大输入长度, 用于预先分配输出数组, 超过时自动扩容
+     */
+    public JcaSecureInputCipher(@NonNull String transformation, @NonNull KeyProvider keyProvider, int maxChars)
+            throws GeneralSecurityException {
+        this.cipher = Cipher.getInstance(transformation);
+        this.keyProvider = keyProvider;
+        // UTF-8 下每个 char 最多 3 字节, 另外预留 IV 和填充 / tag
+        this.output = new byte[Math.max(maxChars, 1) * 3 + 64];
+    }
+
+    @Override
+    public void reset() {
+        try {
+            cipher.init(Cipher.ENCRYPT_MODE, keyProvider.getKey());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot init secure input cipher", e);
+        }
+        Arrays.fill(output, (byte) 0);
+        byte[] iv = cipher.getIV();
+        outputLength = 0;
+        if (iv != null) {
+            ensureOutput(iv.length);
+            System.arraycopy(iv, 0, output, 0, iv.length);
+            outputLength = iv.length;
+        }
+        pendingHighSurrogate = 0;
+    }
+
+    @Override
+    public void update(char c) {
+        if (pendingHighSurrogate != 0 && !Character.isLowSurrogate(c)) {
+            // 单独的高位代理字符与 String.getBytes 一样编码为 '?'
+            pendingHighSurrogate = 0;
+            input[0] = '?';
+            encrypt(1);
+        }
+        if (Character.isHighSurrogate(c)) {
+            // 等待低位代理字符后一起编码
+            pendingHighSurrogate = c;
+            return;
+        }
+        int count;
+        if (pendingHighSurrogate != 0) {
+            int cp = Character.toCodePoint(pendingHighSurrogate, c);
+            pendingHighSurrogate = 0;
+            input[0] = (byte) (0xf0 | (cp >> 18));
+            input[1] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+            input[2] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+            input[3] = (byte) (0x80 | (cp & 0x3f));
+            count = 4;
+        } else if (c < 0x80) {
+            input[0] = (byte) c;
+            count = 1;
+        } else if (c < 0x800) {
+            input[0] = (byte) (0xc0 | (c >> 6));
+            input[1] = (byte) (0x80 | (c & 0x3f));
+            count = 2;
+        } else if (Character.isSurrogate(c)) {
+            // 单独的低位代理字符
+            input[0] = '?';
+            count = 1;
+        } else {
+            input[0] = (byte) (0xe0 | (c >> 12));
+            input[1] = (byte) (0x80 | ((c >> 6) & 0x3f));
+            input[2] = (byte) (0x80 | (c & 0x3f));
+            count = 3;
+        }
+        encrypt(count);
+    }
+
+    private void encrypt(int count) {
+        try {
+            ensureOutput(cipher.getOutputSize(count));
+            outputLength += cipher.update(input, 0, count, output, outputLength);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot encrypt secure input", e);
+        } finally {
+            Arrays.fill(input, (byte) 0);
+        }
+    }
+
+    @Override
+    public int doFinal() {
+        if (pendingHighSurrogate != 0) {
+            // 末尾单独的高位代理字符
+            pendingHighSurrogate = 0;
+            input[0] = '?';
+            encrypt(1);
+        }
+        try {
+            ensureOutput(cipher.getOutputSize(0));
+            outputLength += cipher.doFinal(output, outputLength);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot encrypt secure input", e);
+        }
+        return outputLength;
+    }
+
+    @NonNull
+    @Override
+    public byte[] getOutput() {
+        return output;
+    }
+
+    private void ensureOutput(int extra) {
+        if (outputLength + extra <= output.length) return;
+        byte[] grown = Arrays.copyOf(output, Math.max(outputLength + extra, output.length * 2));
+        Arrays.fill(output, (byte) 0);
+        output = grown;
+    }
+}
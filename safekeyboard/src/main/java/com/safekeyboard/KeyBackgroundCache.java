@@ -0,0 +1,81 @@
+package com.safekeyboard;
+
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.LongSparseArray;
+import android.util.SparseArray;
+
+/**
+ * 按键背景图缓存
+ * <p>
+ * 进程内共享同一份 {@link Drawable.ConstantState} (以资源 id、屏幕密度和日夜间模式区分), 每个 SafeKeyboardView
+ * 只持有自己 mutate 过的 "普通" 和 "按下" 两个实例, 状态在创建时设置一次. 这样绘制时不再需要查找资源,
+ * SafeKeyboard 和 SimpleKeyboardView 中的多个键盘也不会重复解析同一个 selector.
+ */
+final class KeyBackgroundCache {
+
+    private static final int[] STATE_NORMAL = new int[0];
+    private static final int[] STATE_PRESSED = new int[]{android.R.attr.state_pressed};
+    private static final int INDEX_NORMAL = 0;
+    private static final int INDEX_PRESSED = 1;
+
+    private static final LongSparseArray<Drawable.ConstantState> sharedStates = new LongSparseArray<>();
+
+    private final SparseArray<Drawable[]> drawables = new SparseArray<>();
+
+    /**
+     * 获取按键背景
+     *
+     * @param res     当前 View 的 Resources
+     * @param resId   背景资源 id
+     * @param pressed 是否为按下状态
+     * @return 已设置好状态的背景图, 调用方只需要 setBounds 后绘制
+     */
+    Drawable get(Resources res, int resId, boolean pressed) {
+        Drawable[] pair = drawables.get(resId);
+        if (pair == null) {
+            Drawable.ConstantState state = obtainConstantState(res, resId);
+            pair = new Drawable[2];
+            pair[INDEX_NORMAL] = state.newDrawable(res).mutate();
+            pair[INDEX_NORMAL].setState(STATE_NORMAL);
+            pair[INDEX_PRESSED] = state.newDrawable(res).mutate();
+            pair[INDEX_PRESSED].setState(STATE_PRESSED);
+            drawables.put(resId, pair);
+        }
+        return pair[pressed ? INDEX_PRESSED : INDEX_NORMAL];
+    }
+
+    /**
+     * 配置 (日夜间模式、密度) 变化后, 丢弃本 View 持有的实例, 下次绘制时按新配置重新获取
+     */
+    void clear() {
+        drawables.clear();
+    }
+
+    /**
+     * 预先加载背景资源的 ConstantState, 可以在工作线程中调用
+     */
+    static void preload(Resources res, int resId) {
+        obtainConstantState(res, resId);
+    }
+
+    private static Drawable.ConstantState obtainConstantState(Resources res, int resId) {
+        long key = stateKey(res, resId);
+        synchronized (sharedStates) {
+            Drawable.ConstantState state = sharedStates.get(key);
+            if (state == null) {
+                state = res.getDrawable(resId, null).getConstantState();
+                sharedStates.put(key, state);
+            }
+            return state;
+        }
+    }
+
+    private static long stateKey(Resources res, int resId) {
+        Configuration config = res.getConfiguration();
+        int night = config.uiMode & Configuration.UI_MODE_NIGHT_MASK;
+        long configKey = ((long) config.densityDpi << 8) | night;
+        return (configKey << 32) | (resId & 0xffffffffL);
+    }
+}
@@ -0,0 +1,92 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import java.util.List;
+
+/**
+ * 一个键盘布局的大小写表
+ * <p>
+ * 在布局加载时找出所有字母键 (单个 a-z / A-Z 字符且按键值与之相同), 预先生成大写、小写两套 label 和按键值.
+ * 切换大小写时只按下标给这些按键赋值, 不再遍历全部按键做字符串比较和转换.
+ * 字母随机排列时, 布局副本保存一个排列, 赋值时按排列取对应字母.
+ */
+final class KeyCaseTable {
+
+    private static final int CASE_OFFSET = 'a' - 'A';
+
+    private final int[] letterIndices;      // 字母键的下标
+    private final CharSequence[] lowerLabels;
+    private final CharSequence[] upperLabels;
+    private final int[] shiftIndices;       // 大小写键的下标, 大小写变化时图标需要重绘
+
+    private KeyCaseTable(int[] letterIndices, CharSequence[] lowerLabels, CharSequence[] upperLabels,
+                         int[] shiftIndices) {
+        this.letterIndices = letterIndices;
+        this.lowerLabels = lowerLabels;
+        this.upperLabels = upperLabels;
+        this.shiftIndices = shiftIndices;
+    }
+
+    static KeyCaseTable build(List<Keyboard.Key> keys) {
+        int size = keys.size();
+        int[] letters = new int[size];
+        int[] shifts = new int[size];
+        int letterCount = 0;
+        int shiftCount = 0;
+        for (int i = 0; i < size; i++) {
+            Keyboard.Key key = keys.get(i);
+            if (key.codes[0] == Keyboard.KEYCODE_SHIFT) {
+                shifts[shiftCount++] = i;
+            } else if (isLetterKey(key)) {
+                letters[letterCount++] = i;
+            }
+        }
+        int[] letterIndices = new int[letterCount];
+        CharSequence[] lowerLabels = new CharSequence[letterCount];
+        CharSequence[] upperLabels = new CharSequence[letterCount];
+        for (int i = 0; i < letterCount; i++) {
+            int index = letters[i];
+            char c = Character.toLowerCase(keys.get(index).label.charAt(0));
+            letterIndices[i] = index;
+            lowerLabels[i] = String.valueOf(c);
+            upperLabels[i] = String.valueOf((char) (c - CASE_OFFSET));
+        }
+        int[] shiftIndices = new int[shiftCount];
+        System.arraycopy(shifts, 0, shiftIndices, 0, shiftCount);
+        return new KeyCaseTable(letterIndices, lowerLabels, upperLabels, shiftIndices);
+    }
+
+    private static boolean isLetterKey(Keyboard.Key key) {
+        CharSequence label = key.label;
+        if (label == null || label.length() != 1 || key.codes[0] != label.charAt(0)) {
+            return false;
+        }
+        char c = label.charAt(0);
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    /**
+     * 把布局中所有字母键改为大写或小写
+     *
+     * @param keys  使用此表的布局的按键 (可以是副本)
+     * @param order 字母的排列, 第 i 个字母键显示原来第 order[i] 个字母; 为 null 时按原始顺序
+     */
+    void apply(List<Keyboard.Key> keys, boolean upperCase, int[] order) {
+        CharSequence[] labels = upperCase ? upperLabels : lowerLabels;
+        for (int i = 0; i < letterIndices.length; i++) {
+            Keyboard.Key key = keys.get(letterIndices[i]);
+            CharSequence label = labels[order == null ? i : order[i]];
+            key.label = label;
+            key.codes[0] = label.charAt(0);
+        }
+    }
+
+    int[] getLetterIndices() {
+        return letterIndices;
+    }
+
+    int[] getShiftIndices() {
+        return shiftIndices;
+    }
+}
@@ -0,0 +1,36 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import java.util.List;
+
+/**
+ * 按裁剪区域筛选需要绘制的按键
+ * <p>
+ * 只比较整数坐标, 不创建 Rect; 与 {@link android.graphics.Rect#intersects(int, int, int, int)} 一样,
+ * 只有边相接的按键不算相交, 因此裁剪到单个按键时不会把相邻按键也画一遍.
+ */
+final class KeyClipCuller {
+
+    private KeyClipCuller() {
+    }
+
+    /**
+     * @param out 与裁剪区域相交的按键下标按顺序写到这里, 长度不能小于 keys.size()
+     * @return 相交的按键个数
+     */
+    static int select(List<Keyboard.Key> keys, int left, int top, int right, int bottom, int[] out) {
+        int count = 0;
+        if (left >= right || top >= bottom) {
+            return 0;
+        }
+        // 使用下标遍历, 避免创建 Iterator
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            Keyboard.Key key = keys.get(i);
+            if (left < key.x + key.width && key.x < right && top < key.y + key.height && key.y < bottom) {
+                out[count++] = i;
+            }
+        }
+        return count;
+    }
+}
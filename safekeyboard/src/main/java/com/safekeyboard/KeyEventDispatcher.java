@@ -0,0 +1,63 @@
+package com.safekeyboard;
+
+/**
+ * 按键事件的订阅者列表
+ * <p>
+ * 写时复制: 添加、移除时创建新数组, 分发时直接遍历当前数组, 不分配对象, 也不受回调中添加、移除的影响.
+ * 参数均为基本类型, 不装箱.
+ */
+final class KeyEventDispatcher {
+
+    private static final SafeKeyboard.OnKeyEventListener[] EMPTY = new SafeKeyboard.OnKeyEventListener[0];
+
+    private volatile SafeKeyboard.OnKeyEventListener[] listeners = EMPTY;
+
+    synchronized void add(SafeKeyboard.OnKeyEventListener listener) {
+        SafeKeyboard.OnKeyEventListener[] current = listeners;
+        for (SafeKeyboard.OnKeyEventListener l : current) {
+            if (l == listener) return;
+        }
+        SafeKeyboard.OnKeyEventListener[] next = new SafeKeyboard.OnKeyEventListener[current.length + 1];
+        System.arraycopy(current, 0, next, 0, current.length);
+        next[current.length] = listener;
+        listeners = next;
+    }
+
+    synchronized void remove(SafeKeyboard.OnKeyEventListener listener) {
+        SafeKeyboard.OnKeyEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] != listener) continue;
+            if (current.length == 1) {
+                listeners = EMPTY;
+                return;
+            }
+            SafeKeyboard.OnKeyEventListener[] next = new SafeKeyboard.OnKeyEventListener[current.length - 1];
+            System.arraycopy(current, 0, next, 0, i);
+            System.arraycopy(current, i + 1, next, i, current.length - i - 1);
+            listeners = next;
+            return;
+        }
+    }
+
+    synchronized void clear() {
+        listeners = EMPTY;
+    }
+
+    boolean isEmpty() {
+        return listeners.length == 0;
+    }
+
+    void dispatchBefore(int keyCode, int role, long eventTime, int fieldId) {
+        SafeKeyboard.OnKeyEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onBeforeKey(keyCode, role, eventTime, fieldId);
+        }
+    }
+
+    void dispatchAfter(int keyCode, int role, long eventTime, int fieldId) {
+        SafeKeyboard.OnKeyEventListener[] current = listeners;
+        for (int i = 0; i < current.length; i++) {
+            current[i].onAfterKey(keyCode, role, eventTime, fieldId);
+        }
+    }
+}
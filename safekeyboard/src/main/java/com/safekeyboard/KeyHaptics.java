@@ -0,0 +1,27 @@
+package com.safekeyboard;
+
+import android.os.SystemClock;
+import android.view.HapticFeedbackConstants;
+import android.view.View;
+
+/**
+ * 按键震动反馈
+ * <p>
+ * 使用 {@link View#performHapticFeedback(int)}: 不需要 VIBRATE 权限, 不会阻塞主线程, 并遵循系统的
+ * "触摸时振动" 设置 (用户关闭后不震动). 设备没有震动器时由系统忽略, 不再自行调用 Vibrator.
+ * 输入速度快于震动时长时合并为一次. 只在主线程调用 {@link #perform(View)}.
+ */
+final class KeyHaptics {
+
+    private static final long MIN_INTERVAL_MS = 20;
+
+    private long lastFeedbackTime;
+
+    void perform(View view) {
+        long now = SystemClock.uptimeMillis();
+        // 上一次震动还没结束, 合并为一次
+        if (now - lastFeedbackTime < MIN_INTERVAL_MS) return;
+        lastFeedbackTime = now;
+        view.performHapticFeedback(HapticFeedbackConstants.KEYBOARD_TAP);
+    }
+}
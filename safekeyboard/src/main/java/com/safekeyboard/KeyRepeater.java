@@ -0,0 +1,160 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import java.util.List;
+
+/**
+ * 按住按键时的连续输入, 代替 KeyboardView 自带的定时重复
+ * <p>
+ * 由 Choreographer 每帧驱动: 按按住的时长计算到目前为止应该重复的次数, 与已经重复的次数之差一次性交给回调,
+ * 所以每帧最多只有一次修改. 按住越久重复越快; 删除键按住超过 {@link #CLEAR_ALL_AFTER_MS} 后删除光标前的全部内容.
+ * <p>
+ * 从按下到这次触摸结束 ({@link #endGesture()}) 之间为一次连续输入. 关闭 KeyboardView 自带的重复后, 手指滑到其他按键上
+ * 抬起时 KeyboardView 会回调那个按键的 onKey, 连续输入期间的 onKey 应该丢弃, 与系统自带的重复一样不输入第二个按键.
+ * 只在主线程使用.
+ */
+final class KeyRepeater implements Choreographer.FrameCallback {
+
+    private static final long INITIAL_DELAY_MS = 400;   // 与 KeyboardView 相同, 按下后多久开始重复
+    private static final long SLOW_INTERVAL_MS = 80;    // 开始重复后的间隔
+    private static final long FAST_AFTER_MS = 1400;     // 按住多久后加速
+    private static final long FAST_INTERVAL_MS = 30;    // 加速后的间隔
+    private static final long CLEAR_ALL_AFTER_MS = 3000;
+
+    interface Callback {
+        /**
+         * @param code  按住的按键值
+         * @param count 这一帧需要重复的次数, 大于 0
+         */
+        void onRepeat(int code, int count);
+
+        /**
+         * 删除键按住超过 {@link #CLEAR_ALL_AFTER_MS} 时调用一次, 之后不再重复
+         */
+        void onClearAll(int code);
+    }
+
+    /**
+     * 注册每帧的回调, 默认使用 Choreographer, 单元测试中手动驱动
+     */
+    interface FrameScheduler {
+        void postFrameCallback(Choreographer.FrameCallback callback);
+
+        void removeFrameCallback(Choreographer.FrameCallback callback);
+    }
+
+    private static final FrameScheduler CHOREOGRAPHER = new FrameScheduler() {
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().postFrameCallback(callback);
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            Choreographer.getInstance().removeFrameCallback(callback);
+        }
+    };
+
+    private final Callback callback;
+    private final FrameScheduler scheduler;
+    private int code;
+    private boolean clearAllOnHold;
+    private long downTime;
+    private long repeated;
+    private boolean running;
+    private boolean gestureActive;
+
+    KeyRepeater(Callback callback) {
+        this(callback, CHOREOGRAPHER);
+    }
+
+    KeyRepeater(Callback callback, FrameScheduler scheduler) {
+        this.callback = callback;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * 关闭 KeyboardView 自带的重复, 需要在 {@link KeyRoleTable} 记录下可重复的按键之后调用
+     */
+    static void disableKeyboardViewRepeat(List<Keyboard.Key> keys) {
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            keys.get(i).repeatable = false;
+        }
+    }
+
+    /**
+     * 按键按下时调用, 立即输入一次 (与 KeyboardView 的可重复按键一样在按下时输入), 之后按时长重复.
+     * 抬起时 KeyboardView 回调的 onKey 不应再输入, 直到 {@link #endGesture()} 之前的 onKey 都应丢弃
+     *
+     * @param clearAllOnHold 是否为删除键, 按住足够久后删除光标前的全部内容
+     */
+    void start(int code, boolean clearAllOnHold) {
+        stop();
+        this.code = code;
+        this.clearAllOnHold = clearAllOnHold;
+        downTime = SystemClock.uptimeMillis();
+        repeated = 0;
+        running = true;
+        gestureActive = true;
+        scheduler.postFrameCallback(this);
+        callback.onRepeat(code, 1);
+    }
+
+    /**
+     * 停止重复, 这次触摸仍未结束, 之后的 onKey 仍应丢弃
+     */
+    void stop() {
+        if (!running) return;
+        running = false;
+        scheduler.removeFrameCallback(this);
+    }
+
+    /**
+     * 触摸结束 (抬起、取消、失去焦点) 或开始新的触摸时调用, 停止重复并结束这次连续输入
+     */
+    void endGesture() {
+        stop();
+        gestureActive = false;
+    }
+
+    /**
+     * @return 是否在一次连续输入中, 此时 KeyboardView 回调的 onKey 应该丢弃
+     */
+    boolean isGestureActive() {
+        return gestureActive;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) return;
+        long held = SystemClock.uptimeMillis() - downTime;
+        if (clearAllOnHold && held >= CLEAR_ALL_AFTER_MS) {
+            running = false;
+            callback.onClearAll(code);
+            return;
+        }
+        long due = repeatsAt(held) - repeated;
+        // 回调中可能调用 stop, 先注册下一帧
+        scheduler.postFrameCallback(this);
+        if (due > 0) {
+            repeated += due;
+            callback.onRepeat(code, (int) due);
+        }
+    }
+
+    /**
+     * 按住 held 毫秒时, 累计应该重复的次数
+     */
+    private static long repeatsAt(long held) {
+        if (held < INITIAL_DELAY_MS) return 0;
+        long slow = Math.min(held, FAST_AFTER_MS) - INITIAL_DELAY_MS;
+        long count = slow / SLOW_INTERVAL_MS + 1;
+        if (held > FAST_AFTER_MS) {
+            count += (held - FAST_AFTER_MS) / FAST_INTERVAL_MS;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,76 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+/**
+ * 按键角色
+ * <p>
+ * 每个按键的角色在键盘布局加载时确定一次 (见 {@link KeyRoleTable}), 绘制和按键处理时直接查表,
+ * 不再反复比较 -1、-2、-5、-35、100860、100861 等按键值.
+ * 低 4 位为角色类型, 高位为附加标记.
+ */
+public final class KeyRole {
+
+    public static final int NORMAL = 0;            // 普通字符按键
+    public static final int DELETE = 1;            // 删除键 (-5, -35)
+    public static final int SHIFT = 2;             // 大小写切换 (-1)
+    public static final int MODE_CHANGE = 3;       // 数字/字母键盘切换 (-2)
+    public static final int SYMBOL_SWITCH = 4;     // 字母/符号键盘切换 (100860)
+    public static final int NO_OP = 5;             // 无操作 (100861)
+    public static final int CANCEL = 6;            // 隐藏键盘 (-3)
+
+    static final int TYPE_MASK = 0x0f;
+    /**
+     * 按下时不显示按键预览
+     */
+    static final int FLAG_NO_PREVIEW = 0x10;
+    /**
+     * 按住时连续输入 (布局中 isRepeatable 为 true), 由 {@link KeyRepeater} 处理
+     */
+    static final int FLAG_REPEAT = 0x20;
+
+    static final int CODE_DELETE_ALT = -35;
+    static final int CODE_SYMBOL_SWITCH = 100860;
+    static final int CODE_NO_OP = 100861;
+    static final int CODE_SPACE = 32;
+
+    private KeyRole() {
+    }
+
+    /**
+     * 根据按键值确定角色, 只在构建 {@link KeyRoleTable} 时调用
+     */
+    static int classify(int code) {
+        switch (code) {
+            case Keyboard.KEYCODE_DELETE:
+            case CODE_DELETE_ALT:
+                return DELETE | FLAG_NO_PREVIEW;
+            case Keyboard.KEYCODE_SHIFT:
+                return SHIFT | FLAG_NO_PREVIEW;
+            case Keyboard.KEYCODE_MODE_CHANGE:
+                return MODE_CHANGE | FLAG_NO_PREVIEW;
+            case CODE_SYMBOL_SWITCH:
+                return SYMBOL_SWITCH | FLAG_NO_PREVIEW;
+            case CODE_NO_OP:
+                return NO_OP | FLAG_NO_PREVIEW;
+            case Keyboard.KEYCODE_CANCEL:
+                return CANCEL;
+            case CODE_SPACE:
+                return NORMAL | FLAG_NO_PREVIEW;
+            default:
+                return NORMAL;
+        }
+    }
+
+    static int typeOf(int role) {
+        return role & TYPE_MASK;
+    }
+
+    static boolean isPreviewSuppressed(int role) {
+        return (role & FLAG_NO_PREVIEW) != 0;
+    }
+
+    static boolean isRepeatable(int role) {
+        return (role & FLAG_REPEAT) != 0;
+    }
+}
@@ -0,0 +1,69 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+import android.util.SparseIntArray;
+
+import java.util.List;
+
+/**
+ * 一个键盘布局的按键角色表
+ * <p>
+ * 按按键下标保存角色 (绘制时使用), 另外按按键值保存非普通按键的角色 (KeyboardView 回调只给出按键值时使用).
+ */
+final class KeyRoleTable {
+
+    private final byte[] rolesByIndex;
+    private final SparseIntArray rolesByCode;
+
+    private KeyRoleTable(byte[] rolesByIndex, SparseIntArray rolesByCode) {
+        this.rolesByIndex = rolesByIndex;
+        this.rolesByCode = rolesByCode;
+    }
+
+    static KeyRoleTable build(List<Keyboard.Key> keys) {
+        return build(keys, null);
+    }
+
+    /**
+     * @param previous 同一键盘上一次的角色表, 没有时为 null. {@link KeyRepeater#disableKeyboardViewRepeat(List)}
+     *                 之后按键的 repeatable 已被清除, 重新计算时按按键值从这里取回可重复标记
+     */
+    static KeyRoleTable build(List<Keyboard.Key> keys, KeyRoleTable previous) {
+        int size = keys.size();
+        byte[] rolesByIndex = new byte[size];
+        SparseIntArray rolesByCode = new SparseIntArray();
+        for (int i = 0; i < size; i++) {
+            Keyboard.Key key = keys.get(i);
+            int code = key.codes[0];
+            int role = KeyRole.classify(code);
+            if (key.repeatable || (previous != null && (previous.roleOf(code) & KeyRole.FLAG_REPEAT) != 0)) {
+                role |= KeyRole.FLAG_REPEAT;
+            }
+            rolesByIndex[i] = (byte) role;
+            if (role != KeyRole.NORMAL) {
+                rolesByCode.put(code, role);
+            }
+        }
+        return new KeyRoleTable(rolesByIndex, rolesByCode);
+    }
+
+    int size() {
+        return rolesByIndex.length;
+    }
+
+    /**
+     * @param keyIndex 按键下标
+     * @return 按键角色 (含标记位)
+     */
+    int roleAt(int keyIndex) {
+        return keyIndex >= 0 && keyIndex < rolesByIndex.length ? rolesByIndex[keyIndex] : KeyRole.NORMAL;
+    }
+
+    /**
+     * @param code 按键值
+     * @return 按键角色 (含标记位)
+     */
+    int roleOf(int code) {
+        return rolesByCode.get(code, KeyRole.NORMAL);
+    }
+}
@@ -0,0 +1,107 @@
+package com.safekeyboard;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.util.DisplayMetrics;
+import android.util.LongSparseArray;
+
+/**
+ * 进程内共享的键盘布局缓存
+ * <p>
+ * 同一个布局在相同的屏幕宽度和密度下只创建一次 (按键位置与这两者相关), 每个 SafeKeyboard 和 SimpleKeyboardView
+ * 拿到的是缓存布局的副本, 可以随意修改按键 label (大小写切换、数字乱序) 而不影响其他实例.
+ * 系统回调 onTrimMemory 时清空缓存, 下次使用时重新创建.
+ */
+final class KeyboardLayoutCache {
+
+    private static final LongSparseArray<SafeKeyboardLayout> layouts = new LongSparseArray<>();
+    private static boolean trimCallbackRegistered;
+
+    private KeyboardLayoutCache() {
+    }
+
+    /**
+     * 获取布局副本, 可以在工作线程中调用
+     *
+     * @param xmlLayoutResId 键盘布局 xml 资源 id
+     */
+    static SafeKeyboardLayout obtain(Context context, int xmlLayoutResId) {
+        return new SafeKeyboardLayout(context, obtainPrototype(context, xmlLayoutResId));
+    }
+
+    /**
+     * 只把布局放入缓存, 不创建副本, 用于预热
+     */
+    static void preload(Context context, int xmlLayoutResId) {
+        obtainPrototype(context, xmlLayoutResId);
+    }
+
+    private static SafeKeyboardLayout obtainPrototype(Context context, int xmlLayoutResId) {
+        long key = layoutKey(context.getResources(), xmlLayoutResId);
+        SafeKeyboardLayout prototype;
+        synchronized (layouts) {
+            registerTrimCallback(context);
+            prototype = layouts.get(key);
+        }
+        if (prototype == null) {
+            // 在锁外创建, 不阻塞其他布局的获取; 并发创建同一布局时以先放入缓存的为准
+            SafeKeyboardLayout parsed = inflate(context, xmlLayoutResId);
+            synchronized (layouts) {
+                prototype = layouts.get(key);
+                if (prototype == null) {
+                    prototype = parsed;
+                    layouts.put(key, prototype);
+                }
+            }
+        }
+        return prototype;
+    }
+
+    /**
+     * 优先使用编译期生成的布局, 没有对应的编译结果时才解析 xml
+     */
+    private static SafeKeyboardLayout inflate(Context context, int xmlLayoutResId) {
+        CompiledKeyboardLayout compiled = CompiledKeyboardLayouts.get(xmlLayoutResId);
+        if (compiled != null) {
+            return new SafeKeyboardLayout(context, compiled);
+        }
+        return new SafeKeyboardLayout(context, xmlLayoutResId);
+    }
+
+    static void clear() {
+        synchronized (layouts) {
+            layouts.clear();
+        }
+    }
+
+    private static void registerTrimCallback(Context context) {
+        if (trimCallbackRegistered) return;
+        Context appContext = context.getApplicationContext();
+        if (appContext == null) return;
+        appContext.registerComponentCallbacks(new ComponentCallbacks2() {
+            @Override
+            public void onTrimMemory(int level) {
+                clear();
+            }
+
+            @Override
+            public void onConfigurationChanged(Configuration newConfig) {
+                // 缓存以屏幕宽度和密度区分, 配置变化后自然会使用新的布局
+            }
+
+            @Override
+            public void onLowMemory() {
+                clear();
+            }
+        });
+        trimCallbackRegistered = true;
+    }
+
+    private static long layoutKey(Resources res, int resId) {
+        DisplayMetrics dm = res.getDisplayMetrics();
+        long configKey = ((long) (dm.widthPixels & 0xffff) << 16) | (dm.densityDpi & 0xffff);
+        return (configKey << 32) | (resId & 0xffffffffL);
+    }
+}
@@ -0,0 +1,83 @@
+package com.safekeyboard;
+
+import android.content.Context;
+import android.util.SparseArray;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+
+/**
+ * 键盘布局懒加载器
+ * <p>
+ * 每个布局只在第一次使用时解析; 可以通过 {@link #prefetch(int...)} 把接下来可能用到的布局提前放到后台线程解析.
+ * 如果主线程需要的布局还没有开始解析, 直接在主线程解析; 如果正在后台解析, 等待其完成, 不会重复解析.
+ */
+final class KeyboardLayoutLoader {
+
+    // SafeKeyboard 的后台任务 (布局解析、预热) 共用这一个低优先级线程
+    static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "SafeKeyboard-Worker");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    private final Context mContext;
+    private final SparseArray<FutureTask<SafeKeyboardLayout>> tasks = new SparseArray<>();
+
+    KeyboardLayoutLoader(Context context) {
+        this.mContext = context;
+    }
+
+    /**
+     * 获取布局, 必要时在当前线程解析
+     *
+     * @param xmlLayoutResId 键盘布局 xml 资源 id
+     */
+    SafeKeyboardLayout get(int xmlLayoutResId) {
+        FutureTask<SafeKeyboardLayout> task = obtainTask(xmlLayoutResId);
+        // 还没有开始执行的任务直接在当前线程执行, 已经在执行或执行完毕的任务调用 run 不会有任何效果
+        task.run();
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading keyboard layout", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException("Failed to load keyboard layout", cause);
+        }
+    }
+
+    /**
+     * 在后台线程预先解析布局
+     *
+     * @param xmlLayoutResIds 键盘布局 xml 资源 id
+     */
+    void prefetch(int... xmlLayoutResIds) {
+        for (int resId : xmlLayoutResIds) {
+            FutureTask<SafeKeyboardLayout> task;
+            synchronized (tasks) {
+                if (tasks.get(resId) != null) continue;
+                task = obtainTask(resId);
+            }
+            EXECUTOR.execute(task);
+        }
+    }
+
+    private FutureTask<SafeKeyboardLayout> obtainTask(final int resId) {
+        synchronized (tasks) {
+            FutureTask<SafeKeyboardLayout> task = tasks.get(resId);
+            if (task == null) {
+                task = new FutureTask<>(() -> KeyboardLayoutCache.obtain(mContext, resId));
+                tasks.put(resId, task);
+            }
+            return task;
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.safekeyboard;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.Paint;
+import android.graphics.Typeface;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.LayoutInflater;
+import android.widget.FrameLayout;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 预热 SafeKeyboard 第一次显示时需要的资源, 见 {@link SafeKeyboard#prewarm(Context, int, SafeKeyboard.PrewarmListener)}
+ * <p>
+ * 工作线程: 创建所有键盘布局放入进程缓存, 解码按键图标和背景图, 初始化字体, 准备数字随机排列;
+ * 主线程空闲时: inflate 一次键盘容器布局, 完成 View 类的加载和 LayoutInflater 的构造器缓存.
+ * 两部分都完成后在主线程回调. 除工作线程中的任务外, 所有状态只在主线程访问.
+ */
+final class KeyboardPrewarmer {
+
+    private static final int STATE_IDLE = 0;
+    private static final int STATE_RUNNING = 1;
+    private static final int STATE_FINISHED = 2;
+
+    private static final int[] LAYOUTS = {
+            R.xml.keyboard_letter,
+            R.xml.keyboard_letter_num,
+            R.xml.keyboard_num_symbol,
+            R.xml.keyboard_num_only,
+            R.xml.keyboard_symbol,
+            R.xml.keyboard_id_card_zn,
+    };
+    private static final int[] ICONS = {
+            R.drawable.keyboard_delete,
+            R.drawable.keyboard_little,
+            R.drawable.keyboard_large,
+            R.drawable.keyboard_large_node,
+            R.drawable.icon_safe_logo,
+            R.drawable.icon_close,
+    };
+    private static final int[] KEY_BACKGROUNDS = {
+            R.drawable.keyboard_change,
+            R.drawable.keyboard_change_white,
+    };
+
+    private static final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private static final List<SafeKeyboard.PrewarmListener> listeners = new ArrayList<>();
+    private static int state = STATE_IDLE;
+    private static int pendingParts;
+
+    private KeyboardPrewarmer() {
+    }
+
+    /**
+     * 需要在主线程调用; 重复调用不会重复预热, 已经完成时直接 (post 到主线程) 回调
+     */
+    static void prewarm(Context context, final int keyboardLayoutResId, SafeKeyboard.PrewarmListener listener) {
+        if (listener != null) {
+            listeners.add(listener);
+        }
+        if (state == STATE_FINISHED) {
+            mainHandler.post(KeyboardPrewarmer::notifyFinished);
+            return;
+        }
+        if (state == STATE_RUNNING) {
+            return;
+        }
+        state = STATE_RUNNING;
+        pendingParts = 2;
+
+        final Context appContext = context.getApplicationContext() != null ? context.getApplicationContext() : context;
+        KeyboardLayoutLoader.EXECUTOR.execute(() -> {
+            warmUpResources(appContext);
+            mainHandler.post(KeyboardPrewarmer::onPartFinished);
+        });
+        Looper.myQueue().addIdleHandler(() -> {
+            warmUpInflater(appContext, keyboardLayoutResId);
+            onPartFinished();
+            return false;
+        });
+    }
+
+    private static void warmUpResources(Context context) {
+        for (int layout : LAYOUTS) {
+            KeyboardLayoutCache.preload(context, layout);
+        }
+        Resources res = context.getResources();
+        for (int icon : ICONS) {
+            // 解码后的图片会留在 Resources 的缓存中, 之后在主线程获取同一资源时不再解码
+            res.getDrawable(icon, null);
+        }
+        for (int background : KEY_BACKGROUNDS) {
+            KeyBackgroundCache.preload(res, background);
+        }
+        // 与 SafeKeyboardView 中的画笔使用相同字体, 提前完成字体加载
+        Paint paint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        paint.setTypeface(Typeface.DEFAULT_BOLD);
+        paint.measureText("0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        paint.setTypeface(Typeface.DEFAULT);
+        paint.measureText("0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ");
+        DigitShuffler.prepareNext();
+    }
+
+    private static void warmUpInflater(Context context, int keyboardLayoutResId) {
+        // inflate 出来的 View 不会被使用, 只为让真正使用时走缓存
+        LayoutInflater.from(context).inflate(keyboardLayoutResId, new FrameLayout(context), false);
+    }
+
+    private static void onPartFinished() {
+        if (--pendingParts > 0) return;
+        state = STATE_FINISHED;
+        notifyFinished();
+    }
+
+    private static void notifyFinished() {
+        if (listeners.isEmpty()) return;
+        SafeKeyboard.PrewarmListener[] copy = listeners.toArray(new SafeKeyboard.PrewarmListener[0]);
+        listeners.clear();
+        for (SafeKeyboard.PrewarmListener listener : copy) {
+            listener.onPrewarmFinished();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.safekeyboard;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import java.util.Locale;
+
+/**
+ * 键盘启动耗时统计: 从构造 SafeKeyboard / SimpleKeyboardView 到第一次绘制出键盘, 记录各阶段的时间点.
+ * <p>
+ * 时间点为 {@link SystemClock#elapsedRealtimeNanos()}, 没有发生的阶段为 0. 每个阶段只记录第一次.
+ * 所有阶段都发生后回调 {@link Listener}. 只在主线程访问.
+ */
+public final class KeyboardStartupStats {
+
+    public static final int PHASE_CONSTRUCT = 0;            // 开始构造
+    public static final int PHASE_INIT_KEYBOARD = 1;        // initKeyboard 完成
+    public static final int PHASE_INFLATE = 2;              // 键盘容器 inflate 完成
+    public static final int PHASE_FIRST_SHOW = 3;           // 第一次开始显示键盘 (showKeyboard)
+    public static final int PHASE_SHOW_ANIMATION_END = 4;   // 第一次显示动画结束
+    public static final int PHASE_FIRST_DRAW = 5;           // SafeKeyboardView 第一次 onDraw
+    public static final int PHASE_COUNT = 6;
+
+    private static final String[] PHASE_NAMES = {
+            "construct", "initKeyboard", "inflate", "firstShow", "showAnimationEnd", "firstDraw"
+    };
+
+    private final long[] timestamps = new long[PHASE_COUNT];
+    private int markedCount;
+    private Listener listener;
+
+    public interface Listener {
+        void onStartupComplete(KeyboardStartupStats stats);
+    }
+
+    KeyboardStartupStats() {
+    }
+
+    void mark(int phase) {
+        if (timestamps[phase] != 0) return;
+        timestamps[phase] = SystemClock.elapsedRealtimeNanos();
+        if (++markedCount == PHASE_COUNT && listener != null) {
+            listener.onStartupComplete(this);
+        }
+    }
+
+    /**
+     * 设置所有阶段完成后的回调, 已经完成时立即回调
+     */
+    public void setListener(Listener listener) {
+        this.listener = listener;
+        if (listener != null && isComplete()) {
+            listener.onStartupComplete(this);
+        }
+    }
+
+    public boolean isComplete() {
+        return markedCount == PHASE_COUNT;
+    }
+
+    /**
+     * @return 阶段发生时的 {@link SystemClock#elapsedRealtimeNanos()}, 没有发生时为 0
+     */
+    public long getTimestampNanos(int phase) {
+        return timestamps[phase];
+    }
+
+    /**
+     * @return 从开始构造到该阶段的耗时 (毫秒), 没有发生时为 -1
+     */
+    public double getElapsedMillis(int phase) {
+        if (timestamps[phase] == 0 || timestamps[PHASE_CONSTRUCT] == 0) return -1;
+        return (timestamps[phase] - timestamps[PHASE_CONSTRUCT]) / 1e6;
+    }
+
+    /**
+     * 第一次显示键盘到第一次绘制完成的耗时 (毫秒), 即点击输入框后的键盘响应时间; 没有发生时为 -1
+     */
+    public double getTimeToFirstDrawMillis() {
+        if (timestamps[PHASE_FIRST_SHOW] == 0 || timestamps[PHASE_FIRST_DRAW] == 0) return -1;
+        return (timestamps[PHASE_FIRST_DRAW] - timestamps[PHASE_FIRST_SHOW]) / 1e6;
+    }
+
+    @NonNull
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("KeyboardStartupStats{");
+        for (int i = 0; i < PHASE_COUNT; i++) {
+            if (i > 0) sb.append(", ");
+            sb.append(PHASE_NAMES[i]).append('=');
+            double elapsed = getElapsedMillis(i);
+            if (elapsed < 0) {
+                sb.append('-');
+            } else {
+                sb.append(String.format(Locale.US, "%.2fms", elapsed));
+            }
+        }
+        return sb.append('}').toString();
+    }
+}
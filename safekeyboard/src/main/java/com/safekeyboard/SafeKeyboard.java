@@ -9,18 +9,16 @@ import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.SystemClock;
-import android.os.Vibrator;
 
 import androidx.annotation.DrawableRes;
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 
-import android.text.Editable;
 import android.text.InputType;
 import android.text.TextUtils;
 import android.util.DisplayMetrics;
 
-import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -42,7 +40,6 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -58,13 +55,15 @@ public class SafeKeyboard {
     private LinearLayout keyboardParentView;
     private View keyContainer;              //自定义键盘的容器View
     private SafeKeyboardView keyboardView;  //键盘的View
-    private Keyboard keyboardNumber;        //数字键盘
-    private Keyboard keyboardNumberOnly;    //纯数字键盘
-    private Keyboard keyboardLetterOnly;    //字母键盘
-    private Keyboard keyboardLetterNum;     //字母数字键盘
-    private Keyboard keyboardSymbol;        //符号键盘
-    private Keyboard keyboardIdCard;        //中国身份证号码键盘
-    private Keyboard keyboardLetter;        //字母键盘总成
+    // 以下键盘布局均为懒加载, 第一次使用时才解析, 请通过对应的 getXxx() 方法获取
+    private SafeKeyboardLayout keyboardNumber;      //数字键盘
+    private SafeKeyboardLayout keyboardNumberOnly;  //纯数字键盘
+    private SafeKeyboardLayout keyboardSymbol;      //符号键盘
+    private SafeKeyboardLayout keyboardIdCard;      //中国身份证号码键盘
+    private SafeKeyboardLayout keyboardLetter;      //字母键盘总成 (根据 letterWithNum 决定是否带有数字)
+    private KeyboardLayoutLoader layoutLoader;
+    private DeferredInflater containerInflater;
+    private final KeyboardStartupStats startupStats = new KeyboardStartupStats();
     private static boolean isCapes = false;
     private boolean isCapLock = false;
     private boolean isShowStart = false;
@@ -90,8 +89,47 @@ public class SafeKeyboard {
     private TranslateAnimation hideAnimation;
     private long lastTouchTime;
     private EditText mCurrentEditText;
-    private SparseArray<Keyboard.Key> randomDigitKeys;
-    private SparseArray<Keyboard.Key> randomIdCardDigitKeys;
+    private final DigitShuffler digitShuffler = new DigitShuffler();
+    private final EditBatcher editBatcher = new EditBatcher();
+    private final KeyEventDispatcher keyEvents = new KeyEventDispatcher();
+    private final KeyRepeater keyRepeater = new KeyRepeater(new KeyRepeater.Callback() {
+        @Override
+        public void onRepeat(int code, int count) {
+            if (mCurrentEditText == null) return;
+            int role = KeyRole.typeOf(keyboardView.getKeyRole(code));
+            boolean notify = !keyEvents.isEmpty();
+            long eventTime = SystemClock.uptimeMillis();
+            int fieldId = mCurrentEditText.getId();
+            for (int i = 0; i < count; i++) {
+                if (notify) keyEvents.dispatchBefore(code, role, eventTime, fieldId);
+                if (role == KeyRole.DELETE) {
+                    editBatcher.delete(mCurrentEditText);
+                } else {
+                    editBatcher.insert(mCurrentEditText, (char) code);
+                }
+            }
+            // 这一帧的重复合并为一次修改, 立即提交
+            editBatcher.flush();
+            if (notify) {
+                for (int i = 0; i < count; i++) {
+                    keyEvents.dispatchAfter(code, role, eventTime, fieldId);
+                }
+            }
+        }
+
+        @Override
+        public void onClearAll(int code) {
+            if (mCurrentEditText == null) return;
+            int role = KeyRole.typeOf(keyboardView.getKeyRole(code));
+            boolean notify = !keyEvents.isEmpty();
+            long eventTime = SystemClock.uptimeMillis();
+            int fieldId = mCurrentEditText.getId();
+            if (notify) keyEvents.dispatchBefore(code, role, eventTime, fieldId);
+            editBatcher.deleteToStart(mCurrentEditText);
+            editBatcher.flush();
+            if (notify) keyEvents.dispatchAfter(code, role, eventTime, fieldId);
+        }
+    });
     private SparseIntArray mEditLastKeyboardTypeArray;
 
     private HashMap<Integer, EditText> mEditMap;
@@ -110,7 +148,6 @@ public class SafeKeyboard {
     private int[] originalScrollPosInPar;
     private int keyboardContainerHeight;
 
-    private Vibrator mVibrator;
 
     // 已支持多 EditText 共用一个 SafeKeyboard
 
@@ -137,6 +174,25 @@ public class SafeKeyboard {
                 false, isPackageByScrollView);
     }
 
+    /**
+     * SafeKeyboard 构造方法, 键盘容器延迟 inflate
+     * <p>
+     * 容器布局不在构造方法中 inflate, 而是推迟到主线程空闲时, 完成后回调 readyListener (需要在主线程构造).
+     * 在此之前需要用到键盘 View 的操作 (包括点击 EditText、焦点变化触发的显示键盘) 会排队, 就绪后按顺序执行, 不会丢失.
+     *
+     * @param readyListener 容器就绪后在主线程回调, 可以为 null
+     * @see #SafeKeyboard(Context, LinearLayout, int, int, View, View, boolean)
+     */
+    public SafeKeyboard(Context mContext, LinearLayout keyboardParentView, int keyboardLayoutResId, int mSafeKeyboardViewId,
+                        @NonNull View rootView, @NonNull View scrollLayout, boolean isPackageByScrollView,
+                        @Nullable KeyboardReadyListener readyListener) {
+        this(mContext, keyboardParentView, keyboardLayoutResId, mSafeKeyboardViewId, rootView, scrollLayout,
+                false, isPackageByScrollView, true);
+        if (readyListener != null) {
+            containerInflater.runWhenReady(readyListener::onKeyboardReady);
+        }
+    }
+
     /**
      * SafeKeyboard 构造方法, 传入必要的参数
      *
@@ -151,6 +207,14 @@ public class SafeKeyboard {
      */
     SafeKeyboard(Context mContext, LinearLayout keyboardParentView, int keyboardLayoutResId, int mSafeKeyboardViewId,
                  @NonNull View rootView, @NonNull View scrollLayout, boolean letterWithNum, boolean isPackageByScrollView) {
+        this(mContext, keyboardParentView, keyboardLayoutResId, mSafeKeyboardViewId, rootView, scrollLayout,
+                letterWithNum, isPackageByScrollView, false);
+    }
+
+    private SafeKeyboard(Context mContext, LinearLayout keyboardParentView, int keyboardLayoutResId, int mSafeKeyboardViewId,
+                         @NonNull View rootView, @NonNull View scrollLayout, boolean letterWithNum,
+                         boolean isPackageByScrollView, boolean deferInflate) {
+        startupStats.mark(KeyboardStartupStats.PHASE_CONSTRUCT);
         this.mContext = mContext;
         this.keyboardParentView = keyboardParentView;
         this.keyboardLayoutResId = keyboardLayoutResId;
@@ -162,10 +226,16 @@ public class SafeKeyboard {
         initData();
         initKeyboard();
         initAnimation();
+        if (deferInflate) {
+            containerInflater.schedule();
+        } else {
+            containerInflater.inflateNow();
+        }
     }
 
     SafeKeyboard(Context mContext, LinearLayout keyboardParentView, int keyboardLayoutResId, int mSafeKeyboardViewId,
                  Drawable del, Drawable low, Drawable up, Drawable upLock, @NonNull View rootView, @NonNull ViewGroup scrollLayout) {
+        startupStats.mark(KeyboardStartupStats.PHASE_CONSTRUCT);
         this.mContext = mContext;
         this.keyboardParentView = keyboardParentView;
         this.keyboardLayoutResId = keyboardLayoutResId;
@@ -181,10 +251,111 @@ public class SafeKeyboard {
         initData();
         initKeyboard();
         initAnimation();
+        containerInflater.inflateNow();
+    }
+
+    /**
+     * 预热 SafeKeyboard: 提前完成键盘布局解析、图片解码、字体初始化和容器布局的 inflate,
+     * 使第一次 putEditText 并获取焦点时键盘可以立即显示. 建议在 Application.onCreate 中调用, 需要在主线程调用.
+     * <p>
+     * 耗时的工作在后台线程执行, inflate 在主线程空闲时执行, 不会阻塞启动.
+     *
+     * @param context             上下文 Context
+     * @param keyboardLayoutResId 之后构造 SafeKeyboard 时传入的 SafeKeyboard 样式资源 id
+     * @param listener            预热完成后在主线程回调, 可以为 null
+     */
+    public static void prewarm(Context context, int keyboardLayoutResId, PrewarmListener listener) {
+        KeyboardPrewarmer.prewarm(context, keyboardLayoutResId, listener);
+    }
+
+    /**
+     * 使用默认样式 {@code R.layout.layout_keyboard_containor} 预热, 见 {@link #prewarm(Context, int, PrewarmListener)}
+     */
+    public static void prewarm(Context context, PrewarmListener listener) {
+        prewarm(context, R.layout.layout_keyboard_containor, listener);
     }
 
     public void enableRememberLastKeyboardType(boolean enable) {
-        keyboardView.setRememberLastType(enable);
+        containerInflater.runWhenReady(() -> keyboardView.setRememberLastType(enable));
+    }
+
+    /**
+     * 设置数字随机排列的时机 (需要开启 random_digit), 见 {@link SafeKeyboardView#RANDOM_DIGIT_PER_SHOW} 等
+     */
+    public void setRandomDigitPolicy(int policy) {
+        containerInflater.runWhenReady(() -> keyboardView.setRandomDigitPolicy(policy));
+    }
+
+    /**
+     * 开启安全输入: 键盘输入的内容只写入键盘持有的 char[] 缓冲区, 输入框中只显示掩码字符.
+     * 输入框中已有的内容会被清空
+     *
+     * @return 该输入框的缓冲区, 通过它读取输入内容; 不再需要时调用 {@link SecureInputBuffer#wipe()}
+     */
+    @NonNull
+    public SecureInputBuffer enableSecureInput(@NonNull EditText editText) {
+        return editBatcher.enableSecureInput(editText);
+    }
+
+    /**
+     * 开启安全输入并设置流式加密, 输入的同时完成加密, 点击完成时通过
+     * {@link #setSecureInputDoneListener} 取得密文
+     */
+    @NonNull
+    public SecureInputBuffer enableSecureInput(@NonNull EditText editText,
+                                               @Nullable SecureInputCipher cipher) {
+        SecureInputBuffer buffer = editBatcher.enableSecureInput(editText);
+        buffer.setCipher(cipher);
+        return buffer;
+    }
+
+    public void setSecureInputDoneListener(@Nullable SecureInputDoneListener listener) {
+        editBatcher.setSecureInputListener(listener);
+    }
+
+    /**
+     * @return 输入框的安全输入缓冲区, 没有开启安全输入时为 null
+     */
+    @Nullable
+    public SecureInputBuffer getSecureInput(@NonNull EditText editText) {
+        editBatcher.flush();
+        return editBatcher.getSecureInput(editText);
+    }
+
+    /**
+     * 添加按键事件订阅者, 可以添加多个, 重复添加无效. 见 {@link OnKeyEventListener}
+     */
+    public void addOnKeyEventListener(@NonNull OnKeyEventListener listener) {
+        keyEvents.add(listener);
+    }
+
+    public void removeOnKeyEventListener(@NonNull OnKeyEventListener listener) {
+        keyEvents.remove(listener);
+    }
+
+    /**
+     * 点击完成时结束当前输入框的加密, 密文交给 SecureInputDoneListener
+     */
+    private void finishSecureInput() {
+        if (mCurrentEditText == null) return;
+        editBatcher.finishSecureInput(mCurrentEditText);
+    }
+
+    /**
+     * 关闭安全输入并清零缓冲区
+     */
+    public void disableSecureInput(@NonNull EditText editText) {
+        editBatcher.disableSecureInput(editText);
+    }
+
+    /**
+     * 字母键、符号键随机排列, 开启后每次显示字母 / 符号键盘时重新排列 (高风险输入框使用)
+     */
+    public void setRandomLetterAndSymbol(boolean randomLetter, boolean randomSymbol) {
+        containerInflater.runWhenReady(() -> {
+            keyboardView.setRandomLetter(randomLetter);
+            keyboardView.setRandomSymbol(randomSymbol);
+        });
     }
 
     private void initData() {
@@ -196,7 +367,6 @@ public class SafeKeyboard {
         mEditMap = new HashMap<>();
         mIdCardEditMap = new HashMap<>();
         mEditLastKeyboardTypeArray = new SparseIntArray();
-        mVibrator = null;
         originalScrollPosInScr = new int[]{0, 0, 0, 0};
         originalScrollPosInPar = new int[]{0, 0, 0, 0};
 
@@ -238,6 +408,7 @@ public class SafeKeyboard {
             public void onAnimationEnd(Animation animation) {
                 isShowStart = false;
                 keyContainer.clearAnimation();
+                startupStats.mark(KeyboardStartupStats.PHASE_SHOW_ANIMATION_END);
             }
 
             @Override
@@ -273,56 +444,14 @@ public class SafeKeyboard {
 
     @SuppressLint("ClickableViewAccessibility")
     private void initKeyboard() {
-        keyContainer = LayoutInflater.from(mContext).inflate(keyboardLayoutResId, keyboardParentView, true);
-        //keyContainer.post(() -> keyboardContainerHeight = keyContainer.getHeight());
-        //keyContainer.measure(0,0);
-        //keyboardContainerHeight = keyContainer.getMeasuredHeight();
-        keyContainer.setVisibility(View.GONE);
-        keyboardNumber = new Keyboard(mContext, R.xml.keyboard_num_symbol);     //实例化数字键盘
+        // 键盘布局不在这里解析, 第一次使用时才解析; 默认显示的字母键盘提前放到后台线程解析
         // 注: 这里有三个数字键盘,  keyboard_num_symbol:带部分符号;   keyboard_num:可切换的数字键盘;    keyboard_num_only:纯数字键盘, 不可切换
-        keyboardNumberOnly = new Keyboard(mContext, R.xml.keyboard_num_only);
-
-        keyboardLetterOnly = new Keyboard(mContext, R.xml.keyboard_letter);         //实例化字母键盘
-        keyboardLetterNum = new Keyboard(mContext, R.xml.keyboard_letter_num);         //实例化字母键盘
-        keyboardSymbol = new Keyboard(mContext, R.xml.keyboard_symbol);         //实例化符号键盘
-        keyboardIdCard = new Keyboard(mContext, R.xml.keyboard_id_card_zn);     //实例化 IdCard(中国身份证) 键盘
         // 由于符号键盘与字母键盘共用一个KeyBoardView, 所以不需要再为符号键盘单独实例化一个KeyBoardView
-
-        keyboardLetter = letterWithNum ? keyboardLetterNum : keyboardLetterOnly;
+        layoutLoader = new KeyboardLayoutLoader(mContext);
+        layoutLoader.prefetch(getLetterLayoutResId());
 
         lastTouchTime = 0L;
-
-        initRandomDigitKeys();
-        initIdCardRandomDigitKeys();
-
-        keyboardView = keyContainer.findViewById(mSafeKeyboardViewId);
-        if (delDrawable == null)
-            delDrawable = mContext.getDrawable(R.drawable.keyboard_delete);
-        if (lowDrawable == null)
-            lowDrawable = mContext.getDrawable(R.drawable.keyboard_little);
-        if (upDrawable == null)
-            upDrawable = mContext.getDrawable(R.drawable.keyboard_large);
-        if (upDrawableLock == null)
-            upDrawableLock = mContext.getDrawable(R.drawable.keyboard_large_node);
-        keyboardView.setDelDrawable(delDrawable);
-        keyboardView.setLowDrawable(lowDrawable);
-        keyboardView.setUpDrawable(upDrawable);
-        keyboardView.setUpDrawableLock(upDrawableLock);
-        // setKeyboard(keyboardLetter);                         //给键盘View设置键盘
-        keyboardView.setEnabled(true);
-        keyboardView.setPreviewEnabled(false);
-        keyboardView.setOnKeyboardActionListener(listener);
-
-        FrameLayout done = keyContainer.findViewById(R.id.keyboardDone);
-        done.setOnClickListener(v -> {
-            if (isKeyboardShown()) {
-                safeHandler.removeCallbacks(hideRun);
-                safeHandler.removeCallbacks(showRun);
-                safeHandler.postDelayed(hideRun, HIDE_DELAY);
-            }
-        });
-
-        keyboardView.setOnTouchListener((v, event) -> event.getAction() == MotionEvent.ACTION_MOVE);
+        containerInflater = new DeferredInflater(this::inflateContainer);
 
         if (rootView != null) {
             treeObserver = rootView.getViewTreeObserver();
@@ -418,6 +547,53 @@ public class SafeKeyboard {
             }
             return false;
         };
+        startupStats.mark(KeyboardStartupStats.PHASE_INIT_KEYBOARD);
+    }
+
+    @SuppressLint("ClickableViewAccessibility")
+    private void inflateContainer() {
+        keyContainer = LayoutInflater.from(mContext).inflate(keyboardLayoutResId, keyboardParentView, true);
+        //keyContainer.post(() -> keyboardContainerHeight = keyContainer.getHeight());
+        //keyContainer.measure(0,0);
+        //keyboardContainerHeight = keyContainer.getMeasuredHeight();
+        keyContainer.setVisibility(View.GONE);
+
+        keyboardView = keyContainer.findViewById(mSafeKeyboardViewId);
+        if (delDrawable == null)
+            delDrawable = mContext.getDrawable(R.drawable.keyboard_delete);
+        if (lowDrawable == null)
+            lowDrawable = mContext.getDrawable(R.drawable.keyboard_little);
+        if (upDrawable == null)
+            upDrawable = mContext.getDrawable(R.drawable.keyboard_large);
+        if (upDrawableLock == null)
+            upDrawableLock = mContext.getDrawable(R.drawable.keyboard_large_node);
+        keyboardView.setDelDrawable(delDrawable);
+        keyboardView.setLowDrawable(lowDrawable);
+        keyboardView.setUpDrawable(upDrawable);
+        keyboardView.setUpDrawableLock(upDrawableLock);
+        // setKeyboard(keyboardLetter);                         //给键盘View设置键盘
+        keyboardView.setEnabled(true);
+        keyboardView.setPreviewEnabled(false);
+        keyboardView.setOnKeyboardActionListener(listener);
+        keyboardView.setOnGestureEndListener(keyRepeater::endGesture);
+
+        FrameLayout done = keyContainer.findViewById(R.id.keyboardDone);
+        done.setOnClickListener(v -> {
+            finishSecureInput();
+            if (isKeyboardShown()) {
+                safeHandler.removeCallbacks(hideRun);
+                safeHandler.removeCallbacks(showRun);
+                safeHandler.postDelayed(hideRun, HIDE_DELAY);
+            }
+        });
+
+        keyboardView.setOnTouchListener((v, event) -> event.getAction() == MotionEvent.ACTION_MOVE);
+        keyboardView.setStartupStats(startupStats);
+        if (keyboardView.isRandomDigit()) {
+            // 第一次显示数字键盘前, 在后台准备好随机排列
+            DigitShuffler.prepareNext();
+        }
+        startupStats.mark(KeyboardStartupStats.PHASE_INFLATE);
     }
 
     /**
@@ -446,6 +622,10 @@ public class SafeKeyboard {
     }
 
     private void keyboardPreHide() {
+        if (!containerInflater.isReady()) {
+            containerInflater.runUrgently(this::keyboardPreHide);
+            return;
+        }
         safeHandler.removeCallbacks(hideRun);
         safeHandler.removeCallbacks(showRun);
         getOriginalScrollLayoutPos();
@@ -455,6 +635,10 @@ public class SafeKeyboard {
     }
 
     private void keyboardPreShow(final EditText mEditText) {
+        if (!containerInflater.isReady()) {
+            containerInflater.runUrgently(() -> keyboardPreShow(mEditText));
+            return;
+        }
         safeHandler.removeCallbacks(showRun);
         safeHandler.removeCallbacks(hideRun);
         getOriginalScrollLayoutPos();
@@ -473,23 +657,66 @@ public class SafeKeyboard {
         }
     }
 
-    private void initRandomDigitKeys() {
-        randomDigitKeys = new SparseArray<>();
-        List<Keyboard.Key> keys = keyboardNumber.getKeys();
-        for (Keyboard.Key key : keys) {
-            int code = key.codes[0];
-            if (code >= 48 && code <= 57)
-                randomDigitKeys.put(code, key);
+    private int getLetterLayoutResId() {
+        return letterWithNum ? R.xml.keyboard_letter_num : R.xml.keyboard_letter;
+    }
+
+    private SafeKeyboardLayout getKeyboardLetter() {
+        if (keyboardLetter == null) {
+            keyboardLetter = layoutLoader.get(getLetterLayoutResId());              //实例化字母键盘
+        }
+        return keyboardLetter;
+    }
+
+    private SafeKeyboardLayout getKeyboardSymbol() {
+        if (keyboardSymbol == null) {
+            keyboardSymbol = layoutLoader.get(R.xml.keyboard_symbol);               //实例化符号键盘
         }
+        return keyboardSymbol;
     }
 
-    private void initIdCardRandomDigitKeys() {
-        randomIdCardDigitKeys = new SparseArray<>();
-        List<Keyboard.Key> keys = keyboardIdCard.getKeys();
-        for (Keyboard.Key key : keys) {
-            int code = key.codes[0];
-            if (code >= 48 && code <= 57)
-                randomIdCardDigitKeys.put(code, key);
+    private SafeKeyboardLayout getKeyboardNumber() {
+        if (keyboardNumber == null) {
+            keyboardNumber = layoutLoader.get(R.xml.keyboard_num_symbol);           //实例化数字键盘
+        }
+        return keyboardNumber;
+    }
+
+    private SafeKeyboardLayout getKeyboardNumberOnly() {
+        if (keyboardNumberOnly == null) {
+            keyboardNumberOnly = layoutLoader.get(R.xml.keyboard_num_only);
+        }
+        return keyboardNumberOnly;
+    }
+
+    private SafeKeyboardLayout getKeyboardIdCard() {
+        if (keyboardIdCard == null) {
+            keyboardIdCard = layoutLoader.get(R.xml.keyboard_id_card_zn);           //实例化 IdCard(中国身份证) 键盘
+        }
+        return keyboardIdCard;
+    }
+
+    /**
+     * 当前显示的键盘可以直接切换到的键盘, 提前放到后台线程解析
+     *
+     * @param type 当前键盘类型
+     */
+    private void prefetchNextKeyboards(int type) {
+        switch (type) {
+            case 1:
+                layoutLoader.prefetch(R.xml.keyboard_symbol, R.xml.keyboard_num_symbol);
+                break;
+            case 2:
+                layoutLoader.prefetch(getLetterLayoutResId(), R.xml.keyboard_num_symbol);
+                break;
+            case 3:
+                // 纯数字键盘与身份证键盘不能切换到其他键盘
+                if (keyboardView.getKeyboard() == keyboardNumber) {
+                    layoutLoader.prefetch(getLetterLayoutResId(), R.xml.keyboard_symbol);
+                }
+                break;
+            default:
+                break;
         }
     }
 
@@ -520,6 +747,9 @@ public class SafeKeyboard {
         if (mEditMap == null) mEditMap = new HashMap<>();
         mEditMap.put(mEditText.getId(), mEditText);
         mEditText.setOnTouchListener(onEditTextTouchListener);
+        if (mEditText.getInputType() == InputType.TYPE_CLASS_NUMBER) {
+            layoutLoader.prefetch(R.xml.keyboard_num_only);
+        }
     }
 
     /**
@@ -527,12 +757,12 @@ public class SafeKeyboard {
      * name  键盘顶部name
      */
     public SafeKeyboard setCustomCloseIcon(@DrawableRes int resId) {
-        if (keyContainer != null) {
+        containerInflater.runWhenReady(() -> {
             ImageView closeIcon = keyContainer.findViewById(R.id.closeIcon);
             if (closeIcon != null) {
                 closeIcon.setImageResource(resId);
             }
-        }
+        });
         return this;
     }
 
@@ -541,12 +771,12 @@ public class SafeKeyboard {
      * name  键盘顶部name
      */
     public SafeKeyboard setCustomName(@NonNull String name) {
-        if (keyContainer != null) {
+        containerInflater.runWhenReady(() -> {
             TextView tvName = keyContainer.findViewById(R.id.keyboardTip);
             if (tvName != null && !TextUtils.isEmpty(name)) {
                 tvName.setText(name);
             }
-        }
+        });
         return this;
     }
 
@@ -555,18 +785,19 @@ public class SafeKeyboard {
      * resId 键盘顶部logo
      */
     public SafeKeyboard setCustomLogo(@DrawableRes int resId) {
-        if (keyContainer != null) {
+        containerInflater.runWhenReady(() -> {
             ImageView logo = keyContainer.findViewById(R.id.logo);
             if (logo != null) {
                 logo.setImageResource(resId);
             }
-        }
+        });
         return this;
     }
 
     public void putEditText2IdCardType(int id, EditText mEditText) {
         if (mIdCardEditMap == null) mIdCardEditMap = new HashMap<>();
         mIdCardEditMap.put(id, mEditText);
+        layoutLoader.prefetch(R.xml.keyboard_id_card_zn);
     }
 
     /**
@@ -580,6 +811,9 @@ public class SafeKeyboard {
      */
     public void setForbidPreview(boolean forbidPreview) {
         this.forbidPreview = forbidPreview;
+        if (keyboardView != null) {
+            keyboardView.setLayoutPreviewEnabled(keyboardType != 3 && !forbidPreview);
+        }
     }
 
     // 设置键盘点击监听
@@ -587,52 +821,53 @@ public class SafeKeyboard {
 
         @Override
         public void onPress(int primaryCode) {
-            if (keyboardType == 3) {
-                keyboardView.setPreviewEnabled(false);
+            // 预览策略在切换键盘布局时已经确定, 这里只按按键角色查表
+            keyboardView.applyPreviewPolicy(primaryCode);
+            int role = keyboardView.getKeyRole(primaryCode);
+            if (KeyRole.isRepeatable(role) && mCurrentEditText != null) {
+                // 可重复的按键 (删除键) 由 keyRepeater 在按下时输入并处理按住时的重复
+                keyRepeater.start(primaryCode, KeyRole.typeOf(role) == KeyRole.DELETE);
             } else {
-                keyboardView.setPreviewEnabled(!forbidPreview);
-                if (primaryCode == -1 || primaryCode == -5 || primaryCode == 32 || primaryCode == -2
-                        || primaryCode == 100860 || primaryCode == 100861 || primaryCode == -35) {
-                    keyboardView.setPreviewEnabled(false);
-                } else {
-                    keyboardView.setPreviewEnabled(!forbidPreview);
-                }
+                // 新的触摸开始, 上一次触摸可能没有收到结束事件 (如抬起前键盘已隐藏)
+                keyRepeater.endGesture();
             }
         }
 
         @Override
         public void onRelease(int primaryCode) {
+            keyRepeater.stop();
         }
 
-        @SuppressLint("MissingPermission")
         @Override
         public void onKey(int primaryCode, int[] keyCodes) {
             try {
-                Editable editable = mCurrentEditText.getText();
-                int start = mCurrentEditText.getSelectionStart();
-                int end = mCurrentEditText.getSelectionEnd();
-                if (primaryCode == Keyboard.KEYCODE_CANCEL) {
+                int roleFlags = keyboardView.getKeyRole(primaryCode);
+                int role = KeyRole.typeOf(roleFlags);
+                // 可重复的按键已经在按下时由 keyRepeater 输入, 抬起时不再重复输入;
+                // 按住后滑到其他按键上抬起时, KeyboardView 回调的是那个按键, 同样不输入
+                boolean repeated = KeyRole.isRepeatable(roleFlags) || keyRepeater.isGestureActive();
+                if (repeated) {
+                    role = KeyRole.NO_OP;
+                }
+                // 可重复的按键已经由 keyRepeater 回调过按键事件
+                boolean notify = !repeated && !keyEvents.isEmpty();
+                long eventTime = SystemClock.uptimeMillis();
+                int fieldId = mCurrentEditText == null ? View.NO_ID : mCurrentEditText.getId();
+                if (notify) {
+                    keyEvents.dispatchBefore(primaryCode, role, eventTime, fieldId);
+                }
+                if (role == KeyRole.CANCEL) {
                     // 隐藏键盘
                     safeHandler.removeCallbacks(hideRun);
                     safeHandler.removeCallbacks(showRun);
                     safeHandler.post(hideRun/*, HIDE_DELAY*/);
-                } else if (primaryCode == Keyboard.KEYCODE_DELETE || primaryCode == -35) {
-
-                    // 回退键,删除字符
-                    if (editable != null && editable.length() > 0) {
-                        if (start == end) { //光标开始和结束位置相同, 即没有选中内容
-                            editable.delete(start - 1, start);
-                        } else { //光标开始和结束位置不同, 即选中EditText中的内容
-                            editable.delete(start, end);
-                        }
-                    }
-                } else if (primaryCode == Keyboard.KEYCODE_SHIFT) {
+                } else if (role == KeyRole.DELETE) {
+                    // 回退键,删除字符 (有选中内容时删除选中内容), 同一帧内的修改合并提交
+                    editBatcher.delete(mCurrentEditText);
+                } else if (role == KeyRole.SHIFT) {
                     // 大小写切换
                     changeKeyboardLetterCase();
-                    // 重新setKeyboard, 进而系统重新加载, 键盘内容才会变化(切换大小写)
-                    keyboardType = 1;
-                    switchKeyboard();
-                } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE) {
+                } else if (role == KeyRole.MODE_CHANGE) {
                     // 数字与字母键盘互换
                     if (keyboardType == 3) { //当前为数字键盘
                         keyboardType = 1;
@@ -640,7 +875,7 @@ public class SafeKeyboard {
                         keyboardType = 3;
                     }
                     switchKeyboard();
-                } else if (primaryCode == 100860) {
+                } else if (role == KeyRole.SYMBOL_SWITCH) {
                     // 字母与符号切换
                     if (keyboardType == 2) { //当前是符号键盘
                         keyboardType = 1;
@@ -648,29 +883,30 @@ public class SafeKeyboard {
                         keyboardType = 2;
                     }
                     switchKeyboard();
-                } else if (primaryCode == 100861) {
+                } else if (role == KeyRole.NO_OP) {
                     // TODO... 这里啥也不干
                 } else {
-                    // 输入键盘值
-                    // editable.insert(start, Character.toString((char) primaryCode));
-                    editable.replace(start, end, Character.toString((char) primaryCode));
+                    // 输入键盘值 (有选中内容时替换选中内容), 同一帧内的修改合并提交
+                    editBatcher.insert(mCurrentEditText, (char) primaryCode);
                     if (mEditLastKeyboardTypeArray.get(mCurrentEditText.getId(), 1) == 1 && !isCapLock && isCapes) {
                         isCapes = isCapLock = false;
-                        toLowerCase();
-                        keyboardView.setCap(isCapes);
-                        keyboardView.setCapLock(isCapLock);
-                        switchKeyboard();
+                        applyLetterCase();
                     }
+                    SafeKeyboardLayout digitKeyboard = asDigitKeyboard(keyboardView.getKeyboard());
+                    if (digitKeyboard != null && keyboardView.isRandomDigit() && digitShuffler.onKey(digitKeyboard,
+                            keyboardView.getRandomDigitPolicy(), mCurrentEditText.getId())) {
+                        keyboardView.invalidateDigitKeys();
+                    }
+                }
+                if (notify) {
+                    // 有订阅者时立即提交, 保证 onAfterKey 时输入框已经修改
+                    editBatcher.flush();
+                    keyEvents.dispatchAfter(primaryCode, role, eventTime, fieldId);
                 }
 
                 // 添加按键震动
-                if (keyboardView != null && keyboardView.isVibrateEnable()) {
-                    if (mVibrator == null) {
-                        mVibrator = (Vibrator) mContext.getSystemService(Context.VIBRATOR_SERVICE);
-                    }
-                    if (mVibrator != null) {
-                        mVibrator.vibrate(20);
-                    }
+                if (keyboardView != null) {
+                    keyboardView.performKeyHaptic();
                 }
 
             } catch (Exception e) {
@@ -700,44 +936,50 @@ public class SafeKeyboard {
         }
     };
 
-    private void refreshDigitKeyboard(Keyboard keyboard) {
-        if (keyboard != null) {
-            SparseArray<Keyboard.Key> randomKeys;
-            if (keyboard == keyboardIdCard) {
-                // 如果是 IdCard 键盘
-                randomKeys = randomIdCardDigitKeys;
-            } else {
-                // 否则认为是 数字 键盘
-                randomKeys = randomDigitKeys;
+    /**
+     * @return keyboard 为数字类键盘 (数字、纯数字、身份证) 时返回它, 否则为 null
+     */
+    private SafeKeyboardLayout asDigitKeyboard(Keyboard keyboard) {
+        if (keyboard == null) return null;
+        if (keyboard == keyboardNumber) return keyboardNumber;
+        if (keyboard == keyboardNumberOnly) return keyboardNumberOnly;
+        if (keyboard == keyboardIdCard) return keyboardIdCard;
+        return null;
+    }
+
+    /**
+     * 键盘显示时, 按 random_digit / random_letter / random_symbol 重新排列按键
+     */
+    private void shuffleKeysOnShow(Keyboard keyboard) {
+        SafeKeyboardLayout digitKeyboard = asDigitKeyboard(keyboard);
+        if (digitKeyboard != null) {
+            if (keyboardView.isRandomDigit()) {
+                digitShuffler.onShow(digitKeyboard, keyboardView.getRandomDigitPolicy(), mCurrentEditText.getId());
             }
-            HashSet<Integer> set = new HashSet<>();
-            while (set.size() < 10) {
-                int num = (int) (Math.random() * 10);
-                if (set.add(num)) {
-                    // set.size() - 1 表示目前是第几个数字按键
-                    Keyboard.Key key = randomKeys.get(set.size() - 1 + 48);
-                    key.label = num + "";
-                    key.codes[0] = 48 + num;
-                }
+        } else if (keyboard == keyboardLetter) {
+            if (keyboardView.isRandomLetter()) {
+                keyboardLetter.shuffleLetters();
+            }
+        } else if (keyboard == keyboardSymbol) {
+            if (keyboardView.isRandomSymbol()) {
+                keyboardSymbol.shuffleCharKeys();
             }
-        } else {
-//            Log.w(TAG, "Refresh Digit ERROR! Keyboard is null");
         }
     }
 
     private void switchKeyboard() {
         switch (keyboardType) {
             case 1:
-                setKeyboard(keyboardLetter);
+                shuffleKeysOnShow(getKeyboardLetter());
+                setKeyboard(getKeyboardLetter());
                 break;
             case 2:
-                setKeyboard(keyboardSymbol);
+                shuffleKeysOnShow(getKeyboardSymbol());
+                setKeyboard(getKeyboardSymbol());
                 break;
             case 3:
-                if (keyboardView.isRandomDigit()) {
-                    refreshDigitKeyboard(keyboardNumber);
-                }
-                setKeyboard(keyboardNumber);
+                shuffleKeysOnShow(getKeyboardNumber());
+                setKeyboard(getKeyboardNumber());
                 break;
             default:
 //                Log.e(TAG, "ERROR keyboard type");
@@ -757,7 +999,9 @@ public class SafeKeyboard {
         } else type = 1;
         mEditLastKeyboardTypeArray.put(mCurrentEditText.getId(), type);
         keyboardType = type;
+        keyboardView.setLayoutPreviewEnabled(type != 3 && !forbidPreview);
         keyboardView.setKeyboard(keyboard);
+        prefetchNextKeyboards(type);
         // hideSystemKeyBoard(mCurrentEditText);
     }
 
@@ -766,12 +1010,6 @@ public class SafeKeyboard {
     }
 
     private void changeKeyboardLetterCase() {
-        if (!isCapes) {
-            // 为小写时, 改为大写.
-            toUpperCase();
-        } else if (isCapLock) {
-            toLowerCase();
-        }
         if (isCapLock) {
             isCapLock = isCapes = false;
         } else if (isCapes) {
@@ -780,31 +1018,28 @@ public class SafeKeyboard {
             isCapes = true;
             isCapLock = false;
         }
-        keyboardView.setCap(isCapes);
-        keyboardView.setCapLock(isCapLock);
-    }
-
-    private void toLowerCase() {
-        List<Keyboard.Key> keyList = keyboardLetter.getKeys();
-        for (Keyboard.Key key : keyList) {
-            if (key.label != null && isUpCaseLetter(key.label.toString())) {
-                key.label = key.label.toString().toLowerCase();
-                key.codes[0] += 32;
-            }
-        }
+        applyLetterCase();
     }
 
-    private void toUpperCase() {
-        List<Keyboard.Key> keyList = keyboardLetter.getKeys();
-        for (Keyboard.Key key : keyList) {
-            if (key.label != null && isLowCaseLetter(key.label.toString())) {
-                key.label = key.label.toString().toUpperCase();
-                key.codes[0] -= 32;
-            }
+    /**
+     * 把大小写状态应用到字母键盘: 按大小写表替换字母键的 label 和按键值, 只重绘字母键和大小写键, 不重新 setKeyboard
+     */
+    private void applyLetterCase() {
+        SafeKeyboardLayout letter = getKeyboardLetter();
+        keyboardView.setCap(isCapes);
+        keyboardView.setCapLock(isCapLock);
+        letter.setUpperCase(isCapes);
+        if (keyboardView.getKeyboard() == letter) {
+            keyboardView.invalidateLetterCase();
+        } else {
+            setKeyboard(letter);
         }
     }
 
     public void hideKeyboard() {
+        keyRepeater.stop();
+        editBatcher.flush();
+        if (keyContainer == null) return;
         keyContainer.clearAnimation();
         keyContainer.startAnimation(hideAnimation);
     }
@@ -906,12 +1141,13 @@ public class SafeKeyboard {
     };
 
     private void showKeyboard() {
+        startupStats.mark(KeyboardStartupStats.PHASE_FIRST_SHOW);
         Keyboard mKeyboard = getKeyboardByInputType();
-        if (mKeyboard != null && (mKeyboard == keyboardNumber || mKeyboard == keyboardIdCard
-                || mKeyboard == keyboardNumberOnly) && keyboardView.isRandomDigit()) {
-            refreshDigitKeyboard(mKeyboard);
+        if (mKeyboard == null) {
+            mKeyboard = getKeyboardLetter();
         }
-        setKeyboard(mKeyboard == null ? keyboardLetter : mKeyboard);
+        shuffleKeysOnShow(mKeyboard);
+        setKeyboard(mKeyboard);
         keyContainer.setVisibility(View.VISIBLE);
         keyContainer.clearAnimation();
         keyContainer.startAnimation(showAnimation);
@@ -945,43 +1181,36 @@ public class SafeKeyboard {
     }
 
     private Keyboard getKeyboardByInputType() {
-        Keyboard lastKeyboard = keyboardLetter; // 默认字母键盘
+        Keyboard lastKeyboard; // 默认字母键盘
 
         if (mCurrentInputTypeInEdit == InputType.TYPE_CLASS_NUMBER) {
-            lastKeyboard = keyboardNumberOnly;
+            lastKeyboard = getKeyboardNumberOnly();
         } else if (mIdCardEditMap.get(mCurrentEditText.getId()) != null) {
-            lastKeyboard = keyboardIdCard;
+            lastKeyboard = getKeyboardIdCard();
         } else if (keyboardView.isRememberLastType()) {
             int type = mEditLastKeyboardTypeArray.get(mCurrentEditText.getId(), 1);
             switch (type) {
                 case 1:
-                    lastKeyboard = keyboardLetter;
+                    lastKeyboard = getKeyboardLetter();
                     break;
                 case 2:
-                    lastKeyboard = keyboardSymbol;
+                    lastKeyboard = getKeyboardSymbol();
                     break;
                 case 3:
-                    lastKeyboard = keyboardNumber;
+                    lastKeyboard = getKeyboardNumber();
                     break;
                 default:
 //                    Log.e(TAG, "ERROR keyboard type");
+                    lastKeyboard = getKeyboardLetter();
                     break;
             }
+        } else {
+            lastKeyboard = getKeyboardLetter();
         }
 
         return lastKeyboard;
     }
 
-    private boolean isLowCaseLetter(String str) {
-        String letters = "abcdefghijklmnopqrstuvwxyz";
-        return letters.contains(str);
-    }
-
-    private boolean isUpCaseLetter(String str) {
-        String letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-        return letters.contains(str);
-    }
-
     @SuppressLint("ClickableViewAccessibility")
     private void add2MapAllAndEditTextListeners(ArrayList<EditText> mEditTexts) {
         for (EditText mEditText : mEditTexts) {
@@ -1005,6 +1234,13 @@ public class SafeKeyboard {
         this.mListener = listener;
     }
 
+    /**
+     * 启动耗时统计, 见 {@link KeyboardStartupStats}
+     */
+    public KeyboardStartupStats getStartupStats() {
+        return startupStats;
+    }
+
     public int getViewContainerHeight() {
         if (keyContainer != null) {
             return keyContainer.getHeight();
@@ -1016,6 +1252,69 @@ public class SafeKeyboard {
         void keyboardShowStatus(boolean isShowing, int height);
     }
 
+    public interface PrewarmListener {
+        void onPrewarmFinished();
+    }
+
+    public interface KeyboardReadyListener {
+        void onKeyboardReady();
+    }
+
+    /**
+     * 安全输入的流式加密, 每输入一个字符调用一次 {@link #update(char)}, 只在主线程调用.
+     * 默认实现见 {@link JcaSecureInputCipher}
+     */
+    public interface SecureInputCipher {
+        /**
+         * 丢弃之前的输入, 重新开始加密 (删除、中间插入后会重新送入全部内容)
+         */
+        void reset();
+
+        void update(char c);
+
+        /**
+         * 结束加密, 之后需要 {@link #reset()} 才能继续
+         *
+         * @return 密文长度, 密文在 {@link #getOutput()} 的 [0, 返回值) 中
+         */
+        int doFinal();
+
+        @NonNull
+        byte[] getOutput();
+    }
+
+    /**
+     * 按键事件, 在主线程回调. 输入、删除类按键在 onBeforeKey 时输入框尚未修改, 在 onAfterKey 时已经修改.
+     * 按住删除键等连续输入时, 一帧内的多次重复先依次回调 onBeforeKey, 提交修改后再依次回调 onAfterKey
+     */
+    public interface OnKeyEventListener {
+        /**
+         * @param keyCode   按键值
+         * @param role      按键角色, {@link KeyRole#NORMAL}、{@link KeyRole#DELETE} 等
+         * @param eventTime 按键时间, {@link SystemClock#uptimeMillis()}
+         * @param fieldId   当前输入框的 id, 没有时为 {@link View#NO_ID}
+         */
+        void onBeforeKey(int keyCode, int role, long eventTime, int fieldId);
+
+        void onAfterKey(int keyCode, int role, long eventTime, int fieldId);
+    }
+
+    public interface SecureInputDoneListener {
+        /**
+         * 点击完成时, 当前输入框开启了安全输入且设置了加密时调用
+         *
+         * @param ciphertext 密文副本, 用完后可以清零
+         */
+        void onSecureInputDone(@NonNull EditText editText, @NonNull byte[] ciphertext);
+
+        /**
+         * 加密失败 (输入过程中或点击完成时) 时调用, 此时缓冲区和输入框已经清空. 默认只打印异常
+         */
+        default void onSecureInputError(@NonNull EditText editText, @NonNull RuntimeException error) {
+            error.printStackTrace();
+        }
+    }
+
     //隐藏系统键盘关键代码
     private void hideSystemKeyBoard(EditText edit) {
         this.mCurrentEditText = edit;
@@ -1056,7 +1355,7 @@ public class SafeKeyboard {
     }
 
     private boolean isKeyboardShown() {
-        return keyContainer.getVisibility() == View.VISIBLE;
+        return keyContainer != null && keyContainer.getVisibility() == View.VISIBLE;
     }
 
     public boolean stillNeedOptManually(boolean preferShow) {
@@ -1083,25 +1382,31 @@ public class SafeKeyboard {
 
     public void setDelDrawable(Drawable delDrawable) {
         this.delDrawable = delDrawable;
-        keyboardView.setDelDrawable(delDrawable);
+        if (keyboardView != null) keyboardView.setDelDrawable(delDrawable);
     }
 
     public void setLowDrawable(Drawable lowDrawable) {
         this.lowDrawable = lowDrawable;
-        keyboardView.setLowDrawable(lowDrawable);
+        if (keyboardView != null) keyboardView.setLowDrawable(lowDrawable);
     }
 
     public void setUpDrawable(Drawable upDrawable) {
         this.upDrawable = upDrawable;
-        keyboardView.setUpDrawable(upDrawable);
+        if (keyboardView != null) keyboardView.setUpDrawable(upDrawable);
     }
 
     public void setUpDrawableLock(Drawable upDrawableLock) {
         this.upDrawableLock = upDrawableLock;
-        keyboardView.setUpDrawable(upDrawableLock);
+        if (keyboardView != null) keyboardView.setUpDrawable(upDrawableLock);
     }
 
     public void release() {
+        if (containerInflater != null) {
+            containerInflater.release();
+        }
+        keyRepeater.endGesture();
+        editBatcher.release();
+        keyEvents.clear();
         mContext = null;
         isCapes = false;
         toBackSize = 0;
@@ -1123,6 +1428,5 @@ public class SafeKeyboard {
             mIdCardEditMap.clear();
             mIdCardEditMap = null;
         }
-        mVibrator = null;
     }
 }
@@ -0,0 +1,294 @@
+package com.safekeyboard;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.inputmethodservice.Keyboard;
+
+import java.util.List;
+
+/**
+ * SafeKeyboard 内部使用的键盘布局, 在加载时预先计算按键角色等信息
+ */
+class SafeKeyboardLayout extends Keyboard {
+
+    private static final int GRID_WIDTH = 10;
+    private static final int GRID_HEIGHT = 5;
+    private static final int GRID_SIZE = GRID_WIDTH * GRID_HEIGHT;
+    private static final float SEARCH_DISTANCE = 1.8f;     // 与 Keyboard 相同
+
+    private final KeyRoleTable roleTable;
+    private final KeyCaseTable caseTable;
+    private boolean upperCase;              // 字母键当前是否为大写, 每个副本各自记录
+    private int[] letterOrder;              // 字母键的随机排列, 没有随机排列时为 null
+    private CharKeyTable charKeyTable;      // 单字符按键表, 第一次随机排列时创建, 副本使用原布局的表
+    private final int[] digitKeyIndices;    // 数字键的下标, 用于随机排列
+    private boolean digitShuffled;          // 数字键是否已经随机排列过, 每个副本各自记录
+    private int digitShuffleFieldId;        // 上次随机排列时的输入框 id
+    private final int totalHeight;
+    private int totalWidth;
+    // 副本对应的原始布局, 未缩放时两者按键几何信息相同, 可以共用相邻按键表; 直接从 xml 解析的布局为 null
+    private final SafeKeyboardLayout prototype;
+    private boolean resized;                // 副本的按键已按 View 宽度缩放, 不能再使用原布局的相邻按键表
+    // 由编译期布局创建或为副本时自行计算相邻按键表 (Keyboard 中的阈值来自空布局, 不能使用); 其余情况为 0
+    private final int proximityThreshold;
+    private int[][] gridNeighbors;
+    private int cellWidth;
+    private int cellHeight;
+
+    SafeKeyboardLayout(Context context, int xmlLayoutResId) {
+        super(context, xmlLayoutResId);
+        roleTable = KeyRoleTable.build(getKeys());
+        KeyRepeater.disableKeyboardViewRepeat(getKeys());
+        caseTable = KeyCaseTable.build(getKeys());
+        digitKeyIndices = DigitShuffler.findDigitKeys(getKeys());
+        totalHeight = super.getHeight();
+        totalWidth = super.getMinWidth();
+        prototype = null;
+        proximityThreshold = 0;
+    }
+
+    /**
+     * 由编译期生成的布局创建, 不解析键盘布局的 xml, 只按当前屏幕尺寸换算按键位置.
+     * <p>
+     * Keyboard 没有不读取 xml 的构造方法, super 仍会解析一次空模板 safe_keyboard_empty (只有根节点, 没有按键),
+     * 这次解析每个实例都有, 无法复用
+     */
+    SafeKeyboardLayout(Context context, CompiledKeyboardLayout compiled) {
+        super(context, R.xml.safe_keyboard_empty);
+        Resources res = context.getResources();
+        totalWidth = compiled.inflateKeys(res, new Row(this), getKeys(), getModifierKeys());
+        totalHeight = compiled.getHeight(res);
+        proximityThreshold = compiled.getProximityThreshold(res);
+        roleTable = KeyRoleTable.build(getKeys());
+        KeyRepeater.disableKeyboardViewRepeat(getKeys());
+        caseTable = KeyCaseTable.build(getKeys());
+        digitKeyIndices = DigitShuffler.findDigitKeys(getKeys());
+        prototype = null;
+    }
+
+    /**
+     * 复制一份布局, 不解析键盘布局的 xml (super 中仍会解析一次空模板, 见上一个构造方法).
+     * 副本的按键是新的对象, 修改 label、codes 以及按下状态都不会影响原布局
+     *
+     * @param source 已解析好的布局
+     */
+    SafeKeyboardLayout(Context context, SafeKeyboardLayout source) {
+        super(context, R.xml.safe_keyboard_empty);
+        roleTable = source.roleTable;
+        caseTable = source.caseTable;
+        digitKeyIndices = source.digitKeyIndices;
+        totalHeight = source.totalHeight;
+        totalWidth = source.totalWidth;
+        prototype = source.prototype != null ? source.prototype : source;
+        if (prototype.proximityThreshold != 0) {
+            proximityThreshold = prototype.proximityThreshold;
+        } else {
+            // 原布局由 xml 解析, 阈值与 Keyboard 中一样由默认按键宽度计算
+            int threshold = (int) (prototype.getKeyWidth() * SEARCH_DISTANCE);
+            proximityThreshold = threshold * threshold;
+        }
+
+        Row row = new Row(this);
+        List<Key> sourceKeys = source.getKeys();
+        List<Key> keys = getKeys();
+        for (int i = 0, size = sourceKeys.size(); i < size; i++) {
+            keys.add(copyKey(row, sourceKeys.get(i)));
+        }
+        List<Key> modifierKeys = getModifierKeys();
+        for (Key modifier : source.getModifierKeys()) {
+            modifierKeys.add(keys.get(sourceKeys.indexOf(modifier)));
+        }
+    }
+
+    private static Key copyKey(Row row, Key src) {
+        Key key = new Key(row);
+        key.codes = src.codes.clone();
+        key.label = src.label;
+        key.icon = src.icon;
+        key.iconPreview = src.iconPreview;
+        key.text = src.text;
+        key.popupCharacters = src.popupCharacters;
+        key.popupResId = src.popupResId;
+        key.x = src.x;
+        key.y = src.y;
+        key.width = src.width;
+        key.height = src.height;
+        key.gap = src.gap;
+        key.sticky = src.sticky;
+        key.modifier = src.modifier;
+        key.repeatable = src.repeatable;
+        key.edgeFlags = src.edgeFlags;
+        return key;
+    }
+
+    /**
+     * 按 View 的宽度缩放按键, 代替 API 26 起 KeyboardView.onSizeChanged 中调用的 Keyboard.resize:
+     * 副本和编译期布局由空布局创建, Keyboard 中没有行信息, Keyboard.resize 不会做任何处理
+     *
+     * @param width 可用于放置按键的宽度
+     * @return 按键位置或宽度是否发生变化
+     */
+    boolean resize(int width) {
+        if (width <= 0) return false;
+        boolean changed = fitKeysToWidth(getKeys(), width);
+        if (!changed && width == totalWidth) return false;
+        totalWidth = width;
+        // 按键位置变化后相邻按键表需要重新计算
+        gridNeighbors = null;
+        resized |= changed;
+        return changed;
+    }
+
+    /**
+     * 键盘宽度超过 width 时, 所有按键的 x、宽度和间距按同一比例缩小, 相当于按 width 重新换算 "%p".
+     * 不使用 Keyboard.resize 的逐行计算: 它从 x = 0 开始排列, 丢掉行首的间距, 又把每个按键自己的 gap
+     * 加在按键后面, 行首有间距时缩放后仍然会超出 width, 居中的行也会变成左对齐
+     *
+     * @return 是否有按键发生变化
+     */
+    static boolean fitKeysToWidth(List<Key> keys, int width) {
+        int right = 0;
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            Key key = keys.get(i);
+            right = Math.max(right, key.x + key.width);
+        }
+        if (right <= width) return false;
+        float scaleFactor = (float) width / right;
+        for (int i = 0, size = keys.size(); i < size; i++) {
+            Key key = keys.get(i);
+            // 由缩放后的左右边界计算宽度, 相邻按键不会因为取整而重叠
+            int keyRight = (int) ((key.x + key.width) * scaleFactor);
+            key.x = (int) (key.x * scaleFactor);
+            key.width = keyRight - key.x;
+            key.gap = (int) (key.gap * scaleFactor);
+        }
+        return true;
+    }
+
+    KeyRoleTable getRoleTable() {
+        return roleTable;
+    }
+
+    KeyCaseTable getCaseTable() {
+        return caseTable;
+    }
+
+    /**
+     * 切换字母键大小写, 只修改字母键的 label 和按键值, 按键位置不变, 不需要重新 setKeyboard
+     *
+     * @return 大小写是否发生变化
+     */
+    boolean setUpperCase(boolean upperCase) {
+        if (this.upperCase == upperCase) return false;
+        this.upperCase = upperCase;
+        caseTable.apply(getKeys(), upperCase, letterOrder);
+        return true;
+    }
+
+    /**
+     * 随机排列字母键, 保持当前大小写. 只修改字母键的 label 和按键值
+     */
+    void shuffleLetters() {
+        int count = caseTable.getLetterIndices().length;
+        if (count < 2) return;
+        letterOrder = SecurePermutations.next(count);
+        caseTable.apply(getKeys(), upperCase, letterOrder);
+    }
+
+    /**
+     * 随机排列单字符按键 (符号键盘中的所有符号), 只修改这些按键的 label 和按键值
+     */
+    void shuffleCharKeys() {
+        CharKeyTable table = getCharKeyTable();
+        if (table.size() < 2) return;
+        table.apply(getKeys(), SecurePermutations.next(table.size()));
+    }
+
+    private CharKeyTable getCharKeyTable() {
+        if (charKeyTable == null) {
+            // 原始顺序从原布局取, 副本中的按键可能已经被随机排列过
+            charKeyTable = prototype != null ? prototype.getCharKeyTable()
+                    : CharKeyTable.build(getKeys(), roleTable);
+        }
+        return charKeyTable;
+    }
+
+    int[] getDigitKeyIndices() {
+        return digitKeyIndices;
+    }
+
+    boolean isDigitShuffled() {
+        return digitShuffled;
+    }
+
+    int getDigitShuffleFieldId() {
+        return digitShuffleFieldId;
+    }
+
+    void onDigitsShuffled(int fieldId) {
+        digitShuffled = true;
+        digitShuffleFieldId = fieldId;
+    }
+
+    @Override
+    public int getHeight() {
+        return totalHeight;
+    }
+
+    @Override
+    public int getMinWidth() {
+        return totalWidth;
+    }
+
+    @Override
+    public int[] getNearestKeys(int x, int y) {
+        // 副本由空布局创建, 自身的按键间距阈值不对, 未缩放时使用原布局的相邻按键表 (只在主线程访问)
+        if (prototype != null && !resized) {
+            return prototype.getNearestKeys(x, y);
+        }
+        if (proximityThreshold == 0) {
+            return super.getNearestKeys(x, y);
+        }
+        if (gridNeighbors == null) {
+            computeNearestNeighbors();
+        }
+        if (x >= 0 && x < totalWidth && y >= 0 && y < totalHeight) {
+            int index = (y / cellHeight) * GRID_WIDTH + (x / cellWidth);
+            if (index < GRID_SIZE) {
+                return gridNeighbors[index];
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * 与 Keyboard 中的实现相同: 把键盘划分为 GRID_WIDTH * GRID_HEIGHT 个格子, 记录每个格子附近的按键
+     */
+    private void computeNearestNeighbors() {
+        cellWidth = Math.max(1, (totalWidth + GRID_WIDTH - 1) / GRID_WIDTH);
+        cellHeight = Math.max(1, (totalHeight + GRID_HEIGHT - 1) / GRID_HEIGHT);
+        int[][] neighbors = new int[GRID_SIZE][];
+        List<Key> keys = getKeys();
+        int[] indices = new int[keys.size()];
+        int gridWidth = GRID_WIDTH * cellWidth;
+        int gridHeight = GRID_HEIGHT * cellHeight;
+        for (int x = 0; x < gridWidth; x += cellWidth) {
+            for (int y = 0; y < gridHeight; y += cellHeight) {
+                int count = 0;
+                for (int i = 0; i < keys.size(); i++) {
+                    Key key = keys.get(i);
+                    if (key.squaredDistanceFrom(x, y) < proximityThreshold
+                            || key.squaredDistanceFrom(x + cellWidth - 1, y) < proximityThreshold
+                            || key.squaredDistanceFrom(x + cellWidth - 1, y + cellHeight - 1) < proximityThreshold
+                            || key.squaredDistanceFrom(x, y + cellHeight - 1) < proximityThreshold) {
+                        indices[count++] = i;
+                    }
+                }
+                int[] cell = new int[count];
+                System.arraycopy(indices, 0, cell, 0, count);
+                neighbors[(y / cellHeight) * GRID_WIDTH + (x / cellWidth)] = cell;
+            }
+        }
+        gridNeighbors = neighbors;
+    }
+}
@@ -1,10 +1,13 @@
 package com.safekeyboard;
 
 import android.content.Context;
+import android.content.res.Configuration;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
+import android.graphics.PorterDuff;
 import android.graphics.Rect;
 import android.graphics.Typeface;
 import android.graphics.drawable.Drawable;
@@ -14,10 +17,14 @@ import android.os.Build;
 import androidx.annotation.Nullable;
 import androidx.annotation.RequiresApi;
 import android.util.AttributeSet;
+import android.util.DisplayMetrics;
+import android.util.TypedValue;
+import android.view.MotionEvent;
 
 
-import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.List;
+import java.util.WeakHashMap;
 
 /**
  * Created by Administrator on 2018/3/7 0007.
@@ -26,6 +33,12 @@ public class SafeKeyboardView extends KeyboardView {
 
     private static final String TAG = "SafeKeyboardView";
 
+    // 数字随机排列的时机 (random_digit_policy)
+    public static final int RANDOM_DIGIT_PER_SHOW = 0;          // 每次显示数字键盘时
+    public static final int RANDOM_DIGIT_PER_KEYSTROKE = 1;     // 每次显示以及每输入一个字符后
+    public static final int RANDOM_DIGIT_PER_FIELD = 2;         // 切换到另一个输入框时
+    public static final int RANDOM_DIGIT_PER_SESSION = 3;       // 键盘创建后只排列一次
+
     private Context mContext;
     private boolean isCap;
     private boolean isCapLock;
@@ -35,19 +48,63 @@ public class SafeKeyboardView extends KeyboardView {
     private Drawable upDrawable;
     private Drawable upDrawableLock;
     private Keyboard lastKeyboard;
+
+    // 绘制按键文字用的画笔, 只在构造时创建一次, onDraw 中复用, 避免每帧每个按键都 new Paint/Rect
+    private final Paint labelPaint = new Paint(Paint.ANTI_ALIAS_FLAG);  // 多字符标签 (如 ABC, #+=)
+    private final Paint keyPaint = new Paint(Paint.ANTI_ALIAS_FLAG);    // 单字符按键
+    private final Rect textBounds = new Rect();
+    // 按键文字基线缓存, 以按键下标为索引; 标签变化(大小写切换、数字随机)时按引用比较后重新计算
+    private CharSequence[] cachedLabels;
+    private float[] labelBaselines;
+    // 单字符按键 (ASCII) 的文字高度, 以字符为索引, -1 表示还没有测量; 随机排列后的按键不需要再测量文字
+    private final int[] charTextHeights = new int[128];
+    private static final int NORMAL_KEY_COLOR = Color.parseColor("#333333");
+    private final KeyBackgroundCache backgroundCache = new KeyBackgroundCache();
     /**
      * 按键的宽高至少是图标宽高的倍数
      */
     private static final int ICON2KEY = 2;
+    // 特殊按键图标的下标, 用于索引预先计算好的图标位置
+    private static final int ICON_NONE = -1;
+    private static final int ICON_DEL = 0;
+    private static final int ICON_LOW = 1;
+    private static final int ICON_UP = 2;
+    private static final int ICON_UP_LOCK = 3;
+    private static final int ICON_COUNT = 4;
+    // 图标位置缓存 [图标][按键下标], 只与键盘布局、屏幕密度和图标本身有关, 这些变化时重新计算
+    private final Rect[][] iconBounds = new Rect[ICON_COUNT][];
+    private boolean iconBoundsValid;
+
+    // 已绘制好的键盘图层, 按键按下/抬起时只重绘发生变化的按键, 再整体贴到画布上
+    private Bitmap keyLayer;
+    private Canvas keyLayerCanvas;
+    private boolean keyLayerDirty = true;   // 整个图层需要重绘
+    private final DirtyKeys dirtyKeys = new DirtyKeys();    // 图层完整时只重绘这些按键
+    private final Rect clipBounds = new Rect();
+    private int[] visibleKeys = new int[0];  // 与裁剪区域相交的按键下标
+    private KeyRoleTable roleTable;         // 当前键盘的按键角色表
+    // 外部传入的普通 Keyboard 的角色表, 重新计算时用来取回已被清除的 repeatable
+    private final WeakHashMap<Keyboard, KeyRoleTable> externalRoleTables = new WeakHashMap<>();
+    private boolean layoutPreviewEnabled;   // 当前键盘布局是否允许按键预览
+    private KeyboardStartupStats startupStats;  // 第一次绘制完成后置为 null
+    private boolean skipLayoutRequest;      // setKeyboard 期间新旧布局尺寸相同, 忽略 requestLayout
+    private boolean layoutRequestSkipEnabled = true;    // 只在切换键盘的性能测试中关闭, 用于对比
+    private Runnable gestureEndListener;    // 一次触摸结束时调用, 包括抬起、被父 View 拦截、失去窗口焦点和移除
 
     // 键盘的一些自定义属性
     private boolean randomDigit;    // 数字随机
+    private int randomDigitPolicy;  // 数字随机排列的时机
+    private boolean randomLetter;   // 字母随机
+    private boolean randomSymbol;   // 符号随机
     private final static boolean DIGIT_RANDOM = false;
     //    private boolean onlyIdCard;     // 仅显示 身份证 键盘
     //     private final static boolean ONLY_ID_CARD = false;
     private boolean rememberLastType;     // 仅显示 身份证 键盘
     private final static boolean REM_LAST_TYPE = true;
     private final static boolean DEFAULT_ENABLE_VIBRATE = false;
+    private final KeyHaptics keyHaptics = new KeyHaptics();
+    private final static float DEFAULT_LABEL_TEXT_SIZE = 14;    // 与系统 KeyboardView 默认样式一致, 单位 sp
+    private final static int KEY_TEXT_SIZE_OFFSET = 10;         // 未指定 keyTextSize 时, 单字符按键比多字符标签大 10px
 
     @RequiresApi(api = Build.VERSION_CODES.LOLLIPOP)
     public SafeKeyboardView(Context context, AttributeSet attrs) {
@@ -68,14 +125,25 @@ public class SafeKeyboardView extends KeyboardView {
     }
 
     private void initAttrs(Context context, AttributeSet attrs, int defStyleAttr) {
+        DisplayMetrics metrics = context.getResources().getDisplayMetrics();
+        int labelTextSize = (int) TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, DEFAULT_LABEL_TEXT_SIZE, metrics);
+        int keyTextSize = labelTextSize + KEY_TEXT_SIZE_OFFSET;
         if (attrs != null) {
             TypedArray array = context.obtainStyledAttributes(attrs, R.styleable.SafeKeyboardView, defStyleAttr, 0);
             randomDigit = array.getBoolean(R.styleable.SafeKeyboardView_random_digit, DIGIT_RANDOM);
+            randomDigitPolicy = array.getInt(R.styleable.SafeKeyboardView_random_digit_policy, RANDOM_DIGIT_PER_SHOW);
+            randomLetter = array.getBoolean(R.styleable.SafeKeyboardView_random_letter, false);
+            randomSymbol = array.getBoolean(R.styleable.SafeKeyboardView_random_symbol, false);
             // onlyIdCard = array.getBoolean(R.styleable.SafeKeyboardView_only_id_card, ONLY_ID_CARD);
             rememberLastType = array.getBoolean(R.styleable.SafeKeyboardView_remember_last_type, REM_LAST_TYPE);
             enableVibrate = array.getBoolean(R.styleable.SafeKeyboardView_enable_vibrate, DEFAULT_ENABLE_VIBRATE);
+            // 文字大小直接读取布局中的属性, 不再通过反射读取 KeyboardView 的隐藏字段
+            labelTextSize = array.getDimensionPixelSize(R.styleable.SafeKeyboardView_android_labelTextSize, labelTextSize);
+            keyTextSize = array.getDimensionPixelSize(R.styleable.SafeKeyboardView_android_keyTextSize,
+                    labelTextSize + KEY_TEXT_SIZE_OFFSET);
             array.recycle();
         }
+        initPaints(labelTextSize, keyTextSize);
     }
 
     public void setRememberLastType(boolean remember) {
@@ -95,10 +163,55 @@ public class SafeKeyboardView extends KeyboardView {
         this.lastKeyboard = null;
     }
 
+    /**
+     * 初始化绘制按键文字的画笔, 文字大小、字体只需要确定一次
+     *
+     * @param labelTextSize 多字符标签文字大小 (px)
+     * @param keyTextSize   单字符按键文字大小 (px)
+     */
+    private void initPaints(int labelTextSize, int keyTextSize) {
+        labelPaint.setTextAlign(Paint.Align.CENTER);
+        labelPaint.setTextSize(labelTextSize);
+        labelPaint.setTypeface(Typeface.DEFAULT_BOLD);
+
+        keyPaint.setTextAlign(Paint.Align.CENTER);
+        keyPaint.setTextSize(keyTextSize);
+        keyPaint.setTypeface(Typeface.DEFAULT);
+        Arrays.fill(charTextHeights, -1);
+    }
+
     public boolean isRandomDigit() {
         return randomDigit;
     }
 
+    public int getRandomDigitPolicy() {
+        return randomDigitPolicy;
+    }
+
+    /**
+     * @param policy {@link #RANDOM_DIGIT_PER_SHOW}, {@link #RANDOM_DIGIT_PER_KEYSTROKE},
+     *               {@link #RANDOM_DIGIT_PER_FIELD} 或 {@link #RANDOM_DIGIT_PER_SESSION}
+     */
+    public void setRandomDigitPolicy(int policy) {
+        randomDigitPolicy = policy;
+    }
+
+    public boolean isRandomLetter() {
+        return randomLetter;
+    }
+
+    public void setRandomLetter(boolean randomLetter) {
+        this.randomLetter = randomLetter;
+    }
+
+    public boolean isRandomSymbol() {
+        return randomSymbol;
+    }
+
+    public void setRandomSymbol(boolean randomSymbol) {
+        this.randomSymbol = randomSymbol;
+    }
+
 //    public boolean isOnlyIdCard() {
 //        return onlyIdCard;
 //    }
@@ -115,171 +228,519 @@ public class SafeKeyboardView extends KeyboardView {
         this.enableVibrate = enableVibrate;
     }
 
+    /**
+     * 按键震动反馈, 没有开启 enable_vibrate 时不做任何事. 见 {@link KeyHaptics}
+     */
+    void performKeyHaptic() {
+        if (enableVibrate) {
+            keyHaptics.perform(this);
+        }
+    }
+
     @Override
     public void setKeyboard(Keyboard keyboard) {
-        super.setKeyboard(keyboard);
+        // KeyboardView 的测量结果只取决于布局的最小宽度和高度, 两者都不变时 (如字母、符号、数字键盘互相切换)
+        // 跳过 setKeyboard 中的 requestLayout, 只重绘按键, 不再对整个键盘容器重新 measure/layout
+        Keyboard old = getKeyboard();
+        if (keyboard instanceof SafeKeyboardLayout && getWidth() > 0) {
+            // 已经有宽度时直接按当前宽度缩放, 之后 onSizeChanged 只在宽度变化时才会调用
+            ((SafeKeyboardLayout) keyboard).resize(getWidth() - getPaddingLeft() - getPaddingRight());
+        }
+        skipLayoutRequest = layoutRequestSkipEnabled && old != null && keyboard != null && getWidth() > 0 && !isLayoutRequested()
+                && old.getMinWidth() == keyboard.getMinWidth() && old.getHeight() == keyboard.getHeight();
+        try {
+            super.setKeyboard(keyboard);
+        } finally {
+            skipLayoutRequest = false;
+        }
         this.lastKeyboard = keyboard;
+        if (keyboard instanceof SafeKeyboardLayout) {
+            roleTable = ((SafeKeyboardLayout) keyboard).getRoleTable();
+        } else {
+            // 外部传入的普通 Keyboard, 在这里计算按键角色
+            roleTable = buildExternalRoleTable(keyboard);
+        }
+        resetLabelCache(keyboard);
+        iconBoundsValid = false;
+    }
+
+    /**
+     * 是否允许 setKeyboard 跳过 requestLayout, 默认允许; 只供 KeyboardSwitchBenchmark 对比使用
+     */
+    void setLayoutRequestSkipEnabled(boolean enabled) {
+        layoutRequestSkipEnabled = enabled;
+    }
+
+    /**
+     * 计算外部传入的 Keyboard 的按键角色, 然后关闭 KeyboardView 自带的重复. 同一个 Keyboard 再次 setKeyboard
+     * 或者按键数量变化时, 按键的 repeatable 已被清除, 可重复标记从上一次的角色表中取回
+     */
+    private KeyRoleTable buildExternalRoleTable(Keyboard keyboard) {
+        List<Keyboard.Key> keys = keyboard.getKeys();
+        KeyRoleTable table = KeyRoleTable.build(keys, externalRoleTables.get(keyboard));
+        externalRoleTables.put(keyboard, table);
+        KeyRepeater.disableKeyboardViewRepeat(keys);
+        return table;
+    }
+
+    @Override
+    public void requestLayout() {
+        if (skipLayoutRequest) return;
+        super.requestLayout();
+    }
+
+    /**
+     * 键盘布局变化时, 重新分配文字基线缓存, 具体的基线值在第一次绘制时计算
+     */
+    private void resetLabelCache(Keyboard keyboard) {
+        int size = keyboard == null ? 0 : keyboard.getKeys().size();
+        if (cachedLabels == null || cachedLabels.length != size) {
+            cachedLabels = new CharSequence[size];
+            labelBaselines = new float[size];
+        } else {
+            for (int i = 0; i < size; i++) {
+                cachedLabels[i] = null;
+            }
+        }
+    }
+
+    @Override
+    protected void onConfigurationChanged(Configuration newConfig) {
+        super.onConfigurationChanged(newConfig);
+        backgroundCache.clear();
+        // 屏幕密度可能发生变化, 图标位置需要重新计算
+        iconBoundsValid = false;
+        invalidateAllKeys();
+    }
+
+    /**
+     * 查询当前键盘中某个按键值的角色, 用于按键回调中只拿到按键值的场景
+     *
+     * @param code 按键值
+     * @return 角色, 见 {@link KeyRole}
+     */
+    int getKeyRole(int code) {
+        return roleTable == null ? KeyRole.classify(code) : roleTable.roleOf(code);
+    }
+
+    /**
+     * 设置启动耗时统计, 第一次绘制完成时记录 {@link KeyboardStartupStats#PHASE_FIRST_DRAW}
+     */
+    void setStartupStats(KeyboardStartupStats stats) {
+        startupStats = stats;
+    }
+
+    /**
+     * 设置当前键盘布局的预览策略, 在切换键盘布局时确定一次
+     *
+     * @param enabled 该布局是否允许按键预览 (数字键盘、关闭预览时为 false)
+     */
+    void setLayoutPreviewEnabled(boolean enabled) {
+        layoutPreviewEnabled = enabled;
+        if (!enabled && isPreviewEnabled()) {
+            setPreviewEnabled(false);
+        }
+    }
+
+    /**
+     * 按键按下时应用预览策略: 布局允许预览且该按键不是功能键/空格时才显示预览.
+     * 只有结果与当前状态不同时才修改 KeyboardView 的预览开关, 预览弹窗由 KeyboardView 创建一次后复用.
+     *
+     * @param code 按下的按键值
+     */
+    void applyPreviewPolicy(int code) {
+        boolean show = layoutPreviewEnabled && !KeyRole.isPreviewSuppressed(getKeyRole(code));
+        if (show != isPreviewEnabled()) {
+            setPreviewEnabled(show);
+        }
     }
 
     public Keyboard getLastKeyboard() {
         return lastKeyboard;
     }
 
+    /**
+     * 只标记单个按键需要重绘, 不再调用 KeyboardView 自身的缓冲绘制 (它会把整个键盘再画一遍)
+     */
+    @Override
+    public void invalidateKey(int keyIndex) {
+        Keyboard keyboard = getKeyboard();
+        if (keyboard == null) return;
+        List<Keyboard.Key> keys = keyboard.getKeys();
+        if (keyIndex < 0 || keyIndex >= keys.size()) return;
+        if (dirtyKeys.mark(keyIndex, keys.size())) {
+            // 按键数量变化说明键盘布局已变化, 整体重绘
+            keyLayerDirty = true;
+        }
+        Keyboard.Key key = keys.get(keyIndex);
+        invalidate(key.x, key.y, key.x + key.width, key.y + key.height);
+    }
+
+    @Override
+    public void invalidateAllKeys() {
+        keyLayerDirty = true;
+        super.invalidateAllKeys();
+    }
+
+    @Override
+    public void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        // SafeKeyboardLayout 中没有 Keyboard 的行信息, super 中的 Keyboard.resize 不起作用, 自行按宽度缩放按键
+        Keyboard keyboard = getKeyboard();
+        if (keyboard instanceof SafeKeyboardLayout) {
+            ((SafeKeyboardLayout) keyboard).resize(w - getPaddingLeft() - getPaddingRight());
+        }
+        // 按键的 x 和宽度可能已被修改, 图标位置需要重新计算
+        iconBoundsValid = false;
+        releaseKeyLayer();
+    }
+
+    @Override
+    public void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        notifyGestureEnd();
+        releaseKeyLayer();
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent me) {
+        boolean handled = super.onTouchEvent(me);
+        // KeyboardView 只在抬起并发送按键时回调 onRelease, 触摸被 ScrollView 等父 View 拦截 (ACTION_CANCEL) 时不会回调
+        int action = me.getActionMasked();
+        if (action == MotionEvent.ACTION_UP || action == MotionEvent.ACTION_CANCEL) {
+            notifyGestureEnd();
+        }
+        return handled;
+    }
+
+    @Override
+    public void onWindowFocusChanged(boolean hasWindowFocus) {
+        super.onWindowFocusChanged(hasWindowFocus);
+        if (!hasWindowFocus) {
+            notifyGestureEnd();
+        }
+    }
+
+    /**
+     * 设置触摸结束的监听, 在 super.onTouchEvent 之后调用, 即抬起时晚于 onKey 和 onRelease.
+     * 不论 KeyboardView 是否回调 onRelease 都会调用, 用于停止按住按键时的连续输入
+     */
+    void setOnGestureEndListener(@Nullable Runnable listener) {
+        gestureEndListener = listener;
+    }
+
+    private void notifyGestureEnd() {
+        if (gestureEndListener != null) {
+            gestureEndListener.run();
+        }
+    }
+
+    private void releaseKeyLayer() {
+        if (keyLayer != null) {
+            keyLayer.recycle();
+            keyLayer = null;
+        }
+        keyLayerCanvas = null;
+        keyLayerDirty = true;
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
     @Override
     public void onDraw(Canvas canvas) {
         //处理自定义键盘按键重影问题，需要注释调
         //super.onDraw(canvas);
         try {
-            List<Keyboard.Key> keys = getKeyboard().getKeys();
-            for (Keyboard.Key key : keys) {
-                if (key.codes[0] == -5 || key.codes[0] == -2 || key.codes[0] == 100860 || key.codes[0] == -1) {
-                    drawSpecialKey(canvas, key);
-                }else {
-                    drawNormalKey(canvas,key);
+            Keyboard keyboard = getKeyboard();
+            if (keyboard == null || getWidth() <= 0 || getHeight() <= 0) return;
+            List<Keyboard.Key> keys = keyboard.getKeys();
+            if (cachedLabels == null || cachedLabels.length != keys.size()) {
+                resetLabelCache(keyboard);
+            }
+            if (roleTable == null || roleTable.size() != keys.size()) {
+                roleTable = keyboard instanceof SafeKeyboardLayout
+                        ? ((SafeKeyboardLayout) keyboard).getRoleTable() : buildExternalRoleTable(keyboard);
+                iconBoundsValid = false;
+            }
+            if (!iconBoundsValid) {
+                computeIconBounds(keys);
+                keyLayerDirty = true;
+            }
+            if (keyLayer == null) {
+                try {
+                    keyLayer = Bitmap.createBitmap(getWidth(), getHeight(), Bitmap.Config.ARGB_8888);
+                    keyLayerCanvas = new Canvas(keyLayer);
+                    keyLayerDirty = true;
+                } catch (OutOfMemoryError e) {
+                    // 内存不足时不使用图层, 直接绘制到画布上, 只绘制裁剪区域内的按键
+                    dirtyKeys.clear();
+                    drawKeys(canvas, keys);
+                    markFirstDraw();
+                    return;
                 }
             }
+            if (keyLayerDirty) {
+                keyLayer.eraseColor(Color.TRANSPARENT);
+                drawKeys(keyLayerCanvas, keys);
+                keyLayerDirty = false;
+            } else {
+                // 只重绘状态或标签发生变化的按键: 把图层裁剪到该按键范围内, 清空后只画这一个按键
+                for (int i = 0, size = dirtyKeys.size(); i < size; i++) {
+                    int index = dirtyKeys.get(i);
+                    if (index >= keys.size()) continue;
+                    Keyboard.Key key = keys.get(index);
+                    int save = keyLayerCanvas.save();
+                    keyLayerCanvas.clipRect(key.x, key.y, key.x + key.width, key.y + key.height);
+                    keyLayerCanvas.drawColor(Color.TRANSPARENT, PorterDuff.Mode.CLEAR);
+                    drawKey(keyLayerCanvas, key, index);
+                    keyLayerCanvas.restoreToCount(save);
+                }
+            }
+            dirtyKeys.clear();
+            canvas.drawBitmap(keyLayer, 0, 0, null);
+            markFirstDraw();
         } catch (Exception e) {
 //            Log.d("onDraw","error-"+e.getMessage());
         }
     }
 
+    private void markFirstDraw() {
+        if (startupStats != null) {
+            startupStats.mark(KeyboardStartupStats.PHASE_FIRST_DRAW);
+            startupStats = null;
+        }
+    }
+
+    /**
+     * 绘制画布裁剪区域内的按键, 完全在裁剪区域外的按键直接跳过
+     *
+     * @param canvas 画布 (图层画布或者 View 的画布)
+     * @param keys   当前键盘的全部按键
+     */
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    private void drawKeys(Canvas canvas, List<Keyboard.Key> keys) {
+        if (!canvas.getClipBounds(clipBounds)) {
+            // 裁剪区域为空, 不需要绘制任何按键
+            return;
+        }
+        if (visibleKeys.length < keys.size()) {
+            visibleKeys = new int[keys.size()];
+        }
+        int count = KeyClipCuller.select(keys, clipBounds.left, clipBounds.top,
+                clipBounds.right, clipBounds.bottom, visibleKeys);
+        for (int i = 0; i < count; i++) {
+            int index = visibleKeys[i];
+            drawKey(canvas, keys.get(index), index);
+        }
+    }
+
+    @RequiresApi(api = Build.VERSION_CODES.KITKAT)
+    private void drawKey(Canvas canvas, Keyboard.Key key, int index) {
+        int type = KeyRole.typeOf(roleTable.roleAt(index));
+        if (type == KeyRole.DELETE || type == KeyRole.SHIFT || type == KeyRole.MODE_CHANGE
+                || type == KeyRole.SYMBOL_SWITCH) {
+            drawSpecialKey(canvas, key, index, type);
+        } else {
+            drawNormalKey(canvas, key, index);
+        }
+    }
+
     /**
      * 绘制普通key
      * @param canvas c
      * @param key k
+     * @param index 按键下标
      */
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
-    private void drawNormalKey(Canvas canvas, Keyboard.Key key){
+    private void drawNormalKey(Canvas canvas, Keyboard.Key key, int index){
 //        boolean isNight = NightModeHelper.getInstance(getContext()).isNightMode();
 //        int color = Color.parseColor(isNight?"#333333":"#000000");
-        int color = Color.parseColor("#333333");
         drawKeyBackground(R.drawable.keyboard_change_white, canvas, key);
-        drawTextAndIcon(canvas, key, null, color);
+        drawTextAndIcon(canvas, key, index, null, ICON_NONE, NORMAL_KEY_COLOR);
     }
 
     /**
      * 绘制特殊key
      * @param canvas c
      * @param key k
+     * @param index 按键下标
+     * @param type 按键角色类型, 见 {@link KeyRole}
      */
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
-    private void drawSpecialKey(Canvas canvas, Keyboard.Key key) {
+    private void drawSpecialKey(Canvas canvas, Keyboard.Key key, int index, int type) {
         int color = Color.WHITE;
-        if (key.codes[0] == -5) {
+        if (type == KeyRole.DELETE) {
             drawKeyBackground(R.drawable.keyboard_change_white, canvas, key);
-            drawTextAndIcon(canvas, key, delDrawable, color);
-        } else if (key.codes[0] == -2 || key.codes[0] == 100860 || key.codes[0] == 100861) {
+            drawTextAndIcon(canvas, key, index, delDrawable, ICON_DEL, color);
+        } else if (type == KeyRole.MODE_CHANGE || type == KeyRole.SYMBOL_SWITCH || type == KeyRole.NO_OP) {
             drawKeyBackground(R.drawable.keyboard_change, canvas, key);
-            drawTextAndIcon(canvas, key, null, color);
-        } else if (key.codes[0] == -1) {
+            drawTextAndIcon(canvas, key, index, null, ICON_NONE, color);
+        } else if (type == KeyRole.SHIFT) {
             if (isCapLock) {
                 drawKeyBackground(R.drawable.keyboard_change_white, canvas, key);
-                drawTextAndIcon(canvas, key, upDrawableLock, color);
+                drawTextAndIcon(canvas, key, index, upDrawableLock, ICON_UP_LOCK, color);
             } else if (isCap) {
                 drawKeyBackground(R.drawable.keyboard_change_white, canvas, key);
-                drawTextAndIcon(canvas, key, upDrawable, color);
+                drawTextAndIcon(canvas, key, index, upDrawable, ICON_UP, color);
             } else {
                 drawKeyBackground(R.drawable.keyboard_change_white, canvas, key);
-                drawTextAndIcon(canvas, key, lowDrawable, color);
+                drawTextAndIcon(canvas, key, index, lowDrawable, ICON_LOW, color);
             }
         }
     }
 
     private void drawKeyBackground(int id, Canvas canvas, Keyboard.Key key) {
-        Drawable drawable = mContext.getResources().getDrawable(id);
-        int[] state = key.getCurrentDrawableState();
-        if (key.codes[0] != 0) {
-            drawable.setState(state);
-        }
+        // code 为 0 的按键不响应按下状态
+        Drawable drawable = backgroundCache.get(getResources(), id, key.codes[0] != 0 && key.pressed);
         drawable.setBounds(key.x, key.y, key.x + key.width, key.y + key.height);
         drawable.draw(canvas);
     }
 
+    /**
+     * 多字符标签 (且只有一个 code) 使用粗体小号画笔, 其余使用普通画笔
+     */
+    private Paint paintFor(Keyboard.Key key) {
+        return key.label.length() > 1 && key.codes.length < 2 ? labelPaint : keyPaint;
+    }
+
     @RequiresApi(api = Build.VERSION_CODES.KITKAT)
-    private void drawTextAndIcon(Canvas canvas, Keyboard.Key key, @Nullable Drawable drawable, int color) {
+    private void drawTextAndIcon(Canvas canvas, Keyboard.Key key, int index, @Nullable Drawable drawable,
+                                 int iconIndex, int color) {
         try {
-            Rect bounds = new Rect();
-            Paint paint = new Paint();
-            paint.setTextAlign(Paint.Align.CENTER);
-            paint.setAntiAlias(true);
-            paint.setColor(color);
-
-            if (key.label != null) {
-                String label = key.label.toString();
-
-                Field field;
-
-                if (label.length() > 1 && key.codes.length < 2) {
-                    int labelTextSize = 0;
-                    try {
-                        field = KeyboardView.class.getDeclaredField(getContext().getString(R.string.mLabelTextSize));
-                        field.setAccessible(true);
-                        labelTextSize = (int) field.get(this);
-                    } catch (NoSuchFieldException | IllegalAccessException e) {
-                        e.printStackTrace();
-                    }
-                    paint.setTextSize(labelTextSize);
-                    paint.setTypeface(Typeface.DEFAULT_BOLD);
-                } else {
-                    int keyTextSize = 0;
-                    try {
-                        field = KeyboardView.class.getDeclaredField(getContext().getString(R.string.mLabelTextSize));
-                        field.setAccessible(true);
-                        keyTextSize = (int) field.get(this);
-                    } catch (NoSuchFieldException | IllegalAccessException e) {
-                        e.printStackTrace();
-                    }
-                    paint.setTextSize(keyTextSize + 10);
-                    paint.setTypeface(Typeface.DEFAULT);
+            CharSequence label = key.label;
+            if (label != null) {
+                Paint paint = paintFor(key);
+                if (cachedLabels[index] != label) {
+                    // 标签第一次绘制或者已经变化, 重新计算基线
+                    labelBaselines[index] = (key.y + 1.0f * key.height / 2) + 1.0f * textHeight(paint, label) / 2;
+                    cachedLabels[index] = label;
                 }
-
-                paint.getTextBounds(key.label.toString(), 0, key.label.toString().length(), bounds);
-                canvas.drawText(key.label.toString(), key.x + (1.0f * key.width / 2),
-                        (key.y + 1.0f * key.height / 2) + 1.0f * bounds.height() / 2, paint);
+                paint.setColor(color);
+                canvas.drawText(label, 0, label.length(), key.x + (1.0f * key.width / 2), labelBaselines[index], paint);
             }
             if (drawable == null) return;
-            // 约定: 最终图标的宽度和高度都需要在按键的宽度和高度的二分之一以内
-            // 如果: 图标的实际宽度和高度都在按键的宽度和高度的二分之一以内, 那就不需要变换, 否则就需要等比例缩小
-            int iconSizeWidth, iconSizeHeight;
-            key.icon = drawable;
-            int iconH = px2dip(mContext, key.icon.getIntrinsicHeight());
-            int iconW = px2dip(mContext, key.icon.getIntrinsicWidth());
-            if (key.width >= (ICON2KEY * iconW) && key.height >= (ICON2KEY * iconH)) {
-                //图标的实际宽度和高度都在按键的宽度和高度的二分之一以内, 不需要缩放, 因为图片已经够小或者按键够大
-                setIconSize(canvas, key, iconW, iconH);
-            } else {
-                //图标的实际宽度和高度至少有一个不在按键的宽度或高度的二分之一以内, 需要等比例缩放, 因为此时图标的宽或者高已经超过按键的二分之一
-                //需要把超过的那个值设置为按键的二分之一, 另一个等比例缩放
-                //不管图标大小是多少, 都以宽度width为标准, 把图标的宽度缩放到和按键一样大, 并同比例缩放高度
-                double multi = 1.0 * iconW / key.width;
-                int tempIconH = (int) (iconH / multi);
-                if (tempIconH <= key.height) {
-                    //宽度相等时, 图标的高度小于等于按键的高度, 按照现在的宽度和高度设置图标的最终宽度和高度
-                    iconSizeHeight = tempIconH / ICON2KEY;
-                    iconSizeWidth = key.width / ICON2KEY;
-                } else {
-                    //宽度相等时, 图标的高度大于按键的高度, 这时按键放不下图标, 需要重新按照高度缩放
-                    double mul = 1.0 * iconH / key.height;
-                    int tempIconW = (int) (iconW / mul);
-                    iconSizeHeight = key.height / ICON2KEY;
-                    iconSizeWidth = tempIconW / ICON2KEY;
-                }
-                setIconSize(canvas, key, iconSizeWidth, iconSizeHeight);
-            }
+            Rect bounds = iconBounds[iconIndex][index];
+            drawable.setBounds(bounds);
+            drawable.draw(canvas);
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
 
-    private void setIconSize(Canvas canvas, Keyboard.Key key, int iconSizeWidth, int iconSizeHeight) {
+    /**
+     * 文字高度, 单字符按键的结果按字符缓存 (画笔的文字大小和字体只在构造时设置一次)
+     */
+    private int textHeight(Paint paint, CharSequence label) {
+        if (paint == keyPaint && label.length() == 1 && label.charAt(0) < charTextHeights.length) {
+            char c = label.charAt(0);
+            if (charTextHeights[c] < 0) {
+                paint.getTextBounds(label.toString(), 0, 1, textBounds);
+                charTextHeights[c] = textBounds.height();
+            }
+            return charTextHeights[c];
+        }
+        paint.getTextBounds(label.toString(), 0, label.length(), textBounds);
+        return textBounds.height();
+    }
+
+    /**
+     * 计算当前键盘中 删除键、大小写键 的图标位置, 每个键盘布局、每种屏幕密度只需要计算一次
+     */
+    private void computeIconBounds(List<Keyboard.Key> keys) {
+        float density = getResources().getDisplayMetrics().density;
+        int size = keys.size();
+        for (int i = 0; i < ICON_COUNT; i++) {
+            if (iconBounds[i] == null || iconBounds[i].length != size) {
+                iconBounds[i] = new Rect[size];
+            }
+        }
+        for (int i = 0; i < size; i++) {
+            Keyboard.Key key = keys.get(i);
+            int type = KeyRole.typeOf(roleTable.roleAt(i));
+            if (type == KeyRole.DELETE) {
+                iconBounds[ICON_DEL][i] = computeIconBounds(key, delDrawable, density, iconBounds[ICON_DEL][i]);
+            } else if (type == KeyRole.SHIFT) {
+                iconBounds[ICON_LOW][i] = computeIconBounds(key, lowDrawable, density, iconBounds[ICON_LOW][i]);
+                iconBounds[ICON_UP][i] = computeIconBounds(key, upDrawable, density, iconBounds[ICON_UP][i]);
+                iconBounds[ICON_UP_LOCK][i] = computeIconBounds(key, upDrawableLock, density, iconBounds[ICON_UP_LOCK][i]);
+            }
+        }
+        iconBoundsValid = true;
+    }
+
+    private static Rect computeIconBounds(Keyboard.Key key, @Nullable Drawable icon, float density, @Nullable Rect out) {
+        if (out == null) {
+            out = new Rect();
+        }
+        if (icon == null) {
+            out.setEmpty();
+            return out;
+        }
+        // 约定: 最终图标的宽度和高度都需要在按键的宽度和高度的二分之一以内
+        // 如果: 图标的实际宽度和高度都在按键的宽度和高度的二分之一以内, 那就不需要变换, 否则就需要等比例缩小
+        int iconSizeWidth, iconSizeHeight;
+        int iconH = (int) (icon.getIntrinsicHeight() / density + 0.5f);
+        int iconW = (int) (icon.getIntrinsicWidth() / density + 0.5f);
+        if (key.width >= (ICON2KEY * iconW) && key.height >= (ICON2KEY * iconH)) {
+            //图标的实际宽度和高度都在按键的宽度和高度的二分之一以内, 不需要缩放, 因为图片已经够小或者按键够大
+            iconSizeWidth = iconW;
+            iconSizeHeight = iconH;
+        } else {
+            //图标的实际宽度和高度至少有一个不在按键的宽度或高度的二分之一以内, 需要等比例缩放, 因为此时图标的宽或者高已经超过按键的二分之一
+            //需要把超过的那个值设置为按键的二分之一, 另一个等比例缩放
+            //不管图标大小是多少, 都以宽度width为标准, 把图标的宽度缩放到和按键一样大, 并同比例缩放高度
+            double multi = 1.0 * iconW / key.width;
+            int tempIconH = (int) (iconH / multi);
+            if (tempIconH <= key.height) {
+                //宽度相等时, 图标的高度小于等于按键的高度, 按照现在的宽度和高度设置图标的最终宽度和高度
+                iconSizeHeight = tempIconH / ICON2KEY;
+                iconSizeWidth = key.width / ICON2KEY;
+            } else {
+                //宽度相等时, 图标的高度大于按键的高度, 这时按键放不下图标, 需要重新按照高度缩放
+                double mul = 1.0 * iconH / key.height;
+                int tempIconW = (int) (iconW / mul);
+                iconSizeHeight = key.height / ICON2KEY;
+                iconSizeWidth = tempIconW / ICON2KEY;
+            }
+        }
         int left = key.x + (key.width - iconSizeWidth) / 2;
         int top = key.y + (key.height - iconSizeHeight) / 2;
         int right = key.x + (key.width + iconSizeWidth) / 2;
         int bottom = key.y + (key.height + iconSizeHeight) / 2;
-        key.icon.setBounds(left, top, right, bottom);
-        key.icon.draw(canvas);
-        key.icon = null;
+        out.set(left, top, right, bottom);
+        return out;
+    }
+
+    /**
+     * 大小写切换后只重绘字母键和大小写键, 其余按键保留在图层中.
+     * 当前键盘不是 SafeKeyboardLayout 时整体重绘
+     */
+    void invalidateLetterCase() {
+        Keyboard keyboard = getKeyboard();
+        if (!(keyboard instanceof SafeKeyboardLayout)) {
+            invalidateAllKeys();
+            return;
+        }
+        KeyCaseTable caseTable = ((SafeKeyboardLayout) keyboard).getCaseTable();
+        for (int index : caseTable.getLetterIndices()) {
+            invalidateKey(index);
+        }
+        for (int index : caseTable.getShiftIndices()) {
+            invalidateKey(index);
+        }
+    }
+
+    /**
+     * 数字重新排列后只重绘数字键
+     */
+    void invalidateDigitKeys() {
+        Keyboard keyboard = getKeyboard();
+        if (!(keyboard instanceof SafeKeyboardLayout)) {
+            invalidateAllKeys();
+            return;
+        }
+        for (int index : ((SafeKeyboardLayout) keyboard).getDigitKeyIndices()) {
+            invalidateKey(index);
+        }
     }
 
     public void setCap(boolean cap) {
@@ -292,18 +753,22 @@ public class SafeKeyboardView extends KeyboardView {
 
     public void setDelDrawable(Drawable delDrawable) {
         this.delDrawable = delDrawable;
+        iconBoundsValid = false;
     }
 
     public void setLowDrawable(Drawable lowDrawable) {
         this.lowDrawable = lowDrawable;
+        iconBoundsValid = false;
     }
 
     public void setUpDrawable(Drawable upDrawable) {
         this.upDrawable = upDrawable;
+        iconBoundsValid = false;
     }
 
     public void setUpDrawableLock(Drawable upDrawableLock) {
         this.upDrawableLock = upDrawableLock;
+        iconBoundsValid = false;
     }
 
     public static int px2dip(Context context, float pxValue) {
@@ -0,0 +1,192 @@
+package com.safekeyboard;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * 安全输入缓冲区
+ * <p>
+ * 开启安全输入后 (见 {@link SafeKeyboard#enableSecureInput} / {@link SimpleKeyboardView#enableSecureInput}),
+ * 键盘输入的内容只写入这里的 char[], 输入框中显示的是同样长度的掩码字符, 输入过程中不创建 String.
+ * 扩容时旧数组会先清零. 读取请使用 {@link #toCharArray()} 或 {@link #toUtf8Bytes()}, 用完后由调用方清零;
+ * 不再需要时调用 {@link #wipe()}. 只在主线程访问.
+ * <p>
+ * 设置了 {@link SafeKeyboard.SecureInputCipher} 时, 在末尾输入的字符立即送入加密, 其他修改 (删除、中间插入)
+ * 从缓冲区重新加密全部内容, 点击完成时只需要 {@link #doFinal()}. 加密抛出的异常由键盘捕获:
+ * 清零缓冲区和输入框, 再通过 {@link SafeKeyboard.SecureInputDoneListener#onSecureInputError} 通知.
+ */
+public final class SecureInputBuffer {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private char[] chars = new char[INITIAL_CAPACITY];
+    private int length;
+    private SafeKeyboard.SecureInputCipher cipher;
+    // 加密状态与内容不一致 (刚设置、已经 doFinal、清零或加密失败), 下次使用前需要重新开始加密
+    private boolean cipherStale;
+
+    SecureInputBuffer() {
+    }
+
+    public int length() {
+        return length;
+    }
+
+    /**
+     * 把 [start, end) 替换为 source 中的前 count 个字符
+     *
+     * @throws RuntimeException 加密失败, 此时内容已修改, 调用方需要 {@link #wipe()}
+     */
+    void replace(int start, int end, char[] source, int count) {
+        int oldLength = length;
+        int newLength = length - (end - start) + count;
+        ensureCapacity(newLength);
+        System.arraycopy(chars, end, chars, start + count, length - end);
+        System.arraycopy(source, 0, chars, start, count);
+        if (newLength < length) {
+            // 删除后尾部多出来的旧内容清零
+            Arrays.fill(chars, newLength, length, '\0');
+        }
+        length = newLength;
+        if (cipher == null || (start == end && count == 0)) return;
+        if (!cipherStale && start == oldLength && end == oldLength) {
+            for (int i = 0; i < count; i++) {
+                cipher.update(chars[start + i]);
+            }
+        } else {
+            restartCipher();
+        }
+    }
+
+    private void restartCipher() {
+        // 失败时保持 stale, 下次重新开始
+        cipherStale = true;
+        cipher.reset();
+        for (int i = 0; i < length; i++) {
+            cipher.update(chars[i]);
+        }
+        cipherStale = false;
+    }
+
+    /**
+     * 设置流式加密, 已有的内容在下一次修改或 {@link #doFinal()} 时送入加密; 为 null 时取消
+     */
+    public void setCipher(@Nullable SafeKeyboard.SecureInputCipher cipher) {
+        this.cipher = cipher;
+        cipherStale = true;
+    }
+
+    @Nullable
+    public SafeKeyboard.SecureInputCipher getCipher() {
+        return cipher;
+    }
+
+    /**
+     * 结束加密并返回密文副本. 之后继续输入会重新加密全部内容
+     *
+     * @throws IllegalStateException 没有设置加密
+     * @throws RuntimeException      加密失败, 此时已清零全部内容
+     */
+    @NonNull
+    public byte[] doFinal() {
+        if (cipher == null) {
+            throw new IllegalStateException("No cipher set");
+        }
+        try {
+            if (cipherStale) {
+                restartCipher();
+            }
+            cipherStale = true;
+            int size = cipher.doFinal();
+            return Arrays.copyOf(cipher.getOutput(), size);
+        } catch (RuntimeException e) {
+            wipe();
+            throw e;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= chars.length) return;
+        char[] grown = new char[Math.max(capacity, chars.length * 2)];
+        System.arraycopy(chars, 0, grown, 0, length);
+        Arrays.fill(chars, '\0');
+        chars = grown;
+    }
+
+    /**
+     * 复制 [srcBegin, srcEnd) 到 dst, 与 {@link String#getChars(int, int, char[], int)} 相同
+     */
+    public void getChars(int srcBegin, int srcEnd, @NonNull char[] dst, int dstBegin) {
+        if (srcBegin < 0 || srcEnd > length || srcBegin > srcEnd) {
+            throw new IndexOutOfBoundsException("srcBegin=" + srcBegin + ", srcEnd=" + srcEnd + ", length=" + length);
+        }
+        System.arraycopy(chars, srcBegin, dst, dstBegin, srcEnd - srcBegin);
+    }
+
+    /**
+     * @return 内容的副本, 用完后请调用 Arrays.fill(result, '\0') 清零
+     */
+    @NonNull
+    public char[] toCharArray() {
+        return Arrays.copyOf(chars, length);
+    }
+
+    /**
+     * @return 内容的 UTF-8 编码, 不经过 String; 用完后请调用 Arrays.fill(result, (byte) 0) 清零
+     */
+    @NonNull
+    public byte[] toUtf8Bytes() {
+        int size = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                size += 1;
+            } else if (c < 0x800) {
+                size += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                size += 4;
+                i++;
+            } else if (Character.isSurrogate(c)) {
+                size += 1;
+            } else {
+                size += 3;
+            }
+        }
+        byte[] out = new byte[size];
+        int p = 0;
+        for (int i = 0; i < length; i++) {
+            char c = chars[i];
+            if (c < 0x80) {
+                out[p++] = (byte) c;
+            } else if (c < 0x800) {
+                out[p++] = (byte) (0xc0 | (c >> 6));
+                out[p++] = (byte) (0x80 | (c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(chars[i + 1])) {
+                int cp = Character.toCodePoint(c, chars[++i]);
+                out[p++] = (byte) (0xf0 | (cp >> 18));
+                out[p++] = (byte) (0x80 | ((cp >> 12) & 0x3f));
+                out[p++] = (byte) (0x80 | ((cp >> 6) & 0x3f));
+                out[p++] = (byte) (0x80 | (cp & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                // 单独的代理字符与 String.getBytes 一样替换为 '?'
+                out[p++] = '?';
+            } else {
+                out[p++] = (byte) (0xe0 | (c >> 12));
+                out[p++] = (byte) (0x80 | ((c >> 6) & 0x3f));
+                out[p++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+        return out;
+    }
+
+    /**
+     * 清零全部内容, 不调用加密 (不会抛出异常), 加密在下一次输入时重新开始
+     */
+    public void wipe() {
+        Arrays.fill(chars, '\0');
+        length = 0;
+        cipherStale = true;
+    }
+}
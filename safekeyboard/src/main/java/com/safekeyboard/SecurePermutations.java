@@ -0,0 +1,35 @@
+package com.safekeyboard;
+
+import java.security.SecureRandom;
+
+/**
+ * 用 SecureRandom 生成随机排列 (Fisher-Yates), 供数字、字母、符号键随机排列使用. 可以在任意线程调用.
+ */
+final class SecurePermutations {
+
+    private SecurePermutations() {
+    }
+
+    /**
+     * @return 0 到 n - 1 的一个随机排列
+     */
+    static int[] next(int n) {
+        int[] perm = new int[n];
+        for (int i = 0; i < n; i++) {
+            perm[i] = i;
+        }
+        SecureRandom rnd = RandomHolder.RANDOM;
+        for (int i = n - 1; i > 0; i--) {
+            int j = rnd.nextInt(i + 1);
+            int tmp = perm[i];
+            perm[i] = perm[j];
+            perm[j] = tmp;
+        }
+        return perm;
+    }
+
+    // 第一次使用时才初始化 SecureRandom, 通常发生在后台线程 (见 DigitShuffler#prepareNext)
+    private static final class RandomHolder {
+        static final SecureRandom RANDOM = new SecureRandom();
+    }
+}
@@ -2,19 +2,18 @@ package com.safekeyboard;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.content.res.TypedArray;
 import android.graphics.drawable.Drawable;
 import android.inputmethodservice.Keyboard;
 import android.inputmethodservice.KeyboardView;
 import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
-import android.os.Vibrator;
-import android.text.Editable;
+import android.os.SystemClock;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.util.Log;
-import android.util.SparseArray;
 import android.util.SparseIntArray;
 import android.view.LayoutInflater;
 import android.view.MotionEvent;
@@ -38,8 +37,6 @@ import androidx.annotation.RequiresApi;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.List;
 
 /**
  * @author jichengyuan
@@ -53,9 +50,9 @@ public class SimpleKeyboardView extends LinearLayout {
 
     private Context mContext;               //上下文
 
-    private Keyboard keyboardNumber;        //数字键盘【带#+=键、ABC键】
-    private Keyboard keyboardSymbol;        //符号键盘【带123键、ABC键】
-    private Keyboard keyboardLetter;        //字母键盘【默认键盘，带123键、#+=键、空格键】
+    private SafeKeyboardLayout keyboardNumber;      //数字键盘【带#+=键、ABC键】
+    private SafeKeyboardLayout keyboardSymbol;      //符号键盘【带123键、ABC键】
+    private SafeKeyboardLayout keyboardLetter;      //字母键盘【默认键盘，带123键、#+=键、空格键】
 
     private static boolean isCapes = false;
     private boolean isCapLock = false;
@@ -78,7 +75,47 @@ public class SimpleKeyboardView extends LinearLayout {
     private TranslateAnimation showAnimation;
     private TranslateAnimation hideAnimation;
 
-    private SparseArray<Keyboard.Key> randomDigitKeys;
+    private final DigitShuffler digitShuffler = new DigitShuffler();
+    private final EditBatcher editBatcher = new EditBatcher();
+    private final KeyEventDispatcher keyEvents = new KeyEventDispatcher();
+    private final KeyRepeater keyRepeater = new KeyRepeater(new KeyRepeater.Callback() {
+        @Override
+        public void onRepeat(int code, int count) {
+            if (mCurrentEditText == null) return;
+            int role = KeyRole.typeOf(keyboardView.getKeyRole(code));
+            boolean notify = !keyEvents.isEmpty();
+            long eventTime = SystemClock.uptimeMillis();
+            int fieldId = mCurrentEditText.getId();
+            for (int i = 0; i < count; i++) {
+                if (notify) keyEvents.dispatchBefore(code, role, eventTime, fieldId);
+                if (role == KeyRole.DELETE) {
+                    editBatcher.delete(mCurrentEditText);
+                } else {
+                    editBatcher.insert(mCurrentEditText, (char) code);
+                }
+            }
+            // 这一帧的重复合并为一次修改, 立即提交
+            editBatcher.flush();
+            if (notify) {
+                for (int i = 0; i < count; i++) {
+                    keyEvents.dispatchAfter(code, role, eventTime, fieldId);
+                }
+            }
+        }
+
+        @Override
+        public void onClearAll(int code) {
+            if (mCurrentEditText == null) return;
+            int role = KeyRole.typeOf(keyboardView.getKeyRole(code));
+            boolean notify = !keyEvents.isEmpty();
+            long eventTime = SystemClock.uptimeMillis();
+            int fieldId = mCurrentEditText.getId();
+            if (notify) keyEvents.dispatchBefore(code, role, eventTime, fieldId);
+            editBatcher.deleteToStart(mCurrentEditText);
+            editBatcher.flush();
+            if (notify) keyEvents.dispatchAfter(code, role, eventTime, fieldId);
+        }
+    });
     private SparseIntArray mEditLastKeyboardTypeArray;
 
     private HashMap<Integer, EditText> mEditMap;
@@ -95,7 +132,6 @@ public class SimpleKeyboardView extends LinearLayout {
     private int[] originalScrollPosInScr;
     private int[] originalScrollPosInPar;
 
-    private Vibrator mVibrator;
 
     //基本组件
     private FrameLayout mFLDone;//完成按钮
@@ -106,36 +142,76 @@ public class SimpleKeyboardView extends LinearLayout {
     public SimpleKeyboardView(Context context) {
         super(context);
         this.mContext = context;
-        initAll(context);
+        initAll(context, null, 0);
     }
 
     public SimpleKeyboardView(Context context, @Nullable AttributeSet attrs) {
         super(context, attrs);
         this.mContext = context;
-        initAll(context);
+        initAll(context, attrs, 0);
     }
 
     public SimpleKeyboardView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
         super(context, attrs, defStyleAttr);
         this.mContext = context;
-        initAll(context);
+        initAll(context, attrs, defStyleAttr);
     }
 
     private View keyContainer;
+    private DeferredInflater containerInflater;
+    private KeyboardStartupStats startupStats;
 
     //初始化UI，可根据业务需求设置默认值。
-    private void initView(Context context) {
-        keyContainer = LayoutInflater.from(context).inflate(R.layout.layout_simple_keyboard_view, this, true);
+    private void initView() {
+        keyContainer = LayoutInflater.from(mContext).inflate(R.layout.layout_simple_keyboard_view, this, true);
         mFLDone = (FrameLayout) findViewById(R.id.keyboardDone);
         keyboardView = (SafeKeyboardView) findViewById(R.id.safeKeyboardView);
         keyboardRootView = (LinearLayout) findViewById(R.id.ll_root);
+        initKeyboardView();
     }
 
-    private void initAll(Context context) {
-        initView(context);
+    private void initAll(Context context, AttributeSet attrs, int defStyleAttr) {
+        // initAll 在父类构造方法之后调用, 字段初始化也在父类构造方法之后, 所以在这里创建
+        startupStats = new KeyboardStartupStats();
+        startupStats.mark(KeyboardStartupStats.PHASE_CONSTRUCT);
+        boolean asyncInflate = false;
+        if (attrs != null) {
+            TypedArray array = context.obtainStyledAttributes(attrs, R.styleable.SimpleKeyboardView, defStyleAttr, 0);
+            asyncInflate = array.getBoolean(R.styleable.SimpleKeyboardView_async_inflate, false);
+            array.recycle();
+        }
         initData();
         initKeyboard();
+        startupStats.mark(KeyboardStartupStats.PHASE_INIT_KEYBOARD);
         initAnimation();
+        // async_inflate 为 true 时, 键盘容器推迟到主线程空闲时 inflate, 不占用 Dialog 打开时的那一帧
+        containerInflater = new DeferredInflater(this::initView);
+        if (asyncInflate) {
+            containerInflater.schedule();
+        } else {
+            containerInflater.inflateNow();
+        }
+    }
+
+    /**
+     * 键盘容器就绪后在主线程回调, 已经就绪时立即回调.
+     * 未设置 async_inflate 时, 构造完成后即已就绪.
+     */
+    public void setOnKeyboardReadyListener(@Nullable SafeKeyboard.KeyboardReadyListener readyListener) {
+        if (readyListener != null) {
+            containerInflater.runWhenReady(readyListener::onKeyboardReady);
+        }
+    }
+
+    /**
+     * 启动耗时统计, 见 {@link KeyboardStartupStats}
+     */
+    public KeyboardStartupStats getStartupStats() {
+        return startupStats;
+    }
+
+    public boolean isKeyboardReady() {
+        return containerInflater.isReady();
     }
 
     private void initData() {
@@ -147,7 +223,6 @@ public class SimpleKeyboardView extends LinearLayout {
         mEditMap = new HashMap<>();
         mIdCardEditMap = new HashMap<>();
         mEditLastKeyboardTypeArray = new SparseIntArray();
-        mVibrator = null;
         originalScrollPosInScr = new int[]{0, 0, 0, 0};
         originalScrollPosInPar = new int[]{0, 0, 0, 0};
 
@@ -189,6 +264,7 @@ public class SimpleKeyboardView extends LinearLayout {
             public void onAnimationEnd(Animation animation) {
                 isShowStart = false;
                 keyboardRootView.clearAnimation();
+                startupStats.mark(KeyboardStartupStats.PHASE_SHOW_ANIMATION_END);
             }
 
             @Override
@@ -225,44 +301,11 @@ public class SimpleKeyboardView extends LinearLayout {
 
     @SuppressLint("ClickableViewAccessibility")
     private void initKeyboard() {
-        keyboardRootView.setVisibility(View.GONE);
-
-        keyboardNumber = new Keyboard(mContext, R.xml.keyboard_num_symbol);     //实例化数字键盘
-        keyboardSymbol = new Keyboard(mContext, R.xml.keyboard_symbol);         //实例化符号键盘
-        keyboardLetter = new Keyboard(mContext, R.xml.keyboard_letter);         //实例化字母键盘
-
-        initRandomDigitKeys();
-
-        if (delDrawable == null)
-            delDrawable = mContext.getDrawable(R.drawable.keyboard_delete);
-        if (lowDrawable == null)
-            lowDrawable = mContext.getDrawable(R.drawable.keyboard_little);
-        if (upDrawable == null)
-            upDrawable = mContext.getDrawable(R.drawable.keyboard_large);
-        if (upDrawableLock == null)
-            upDrawableLock = mContext.getDrawable(R.drawable.keyboard_large_node);
+        keyboardNumber = KeyboardLayoutCache.obtain(mContext, R.xml.keyboard_num_symbol);   //实例化数字键盘
+        keyboardSymbol = KeyboardLayoutCache.obtain(mContext, R.xml.keyboard_symbol);       //实例化符号键盘
+        keyboardLetter = KeyboardLayoutCache.obtain(mContext, R.xml.keyboard_letter);       //实例化字母键盘
 
-        keyboardView.setDelDrawable(delDrawable);
-        keyboardView.setLowDrawable(lowDrawable);
-        keyboardView.setUpDrawable(upDrawable);
-        keyboardView.setUpDrawableLock(upDrawableLock);
-
-        // setKeyboard(keyboardLetter);                         //给键盘View设置键盘
-        keyboardView.setEnabled(true);
-        keyboardView.setPreviewEnabled(false);
-        keyboardView.setOnKeyboardActionListener(listener);
-
-        mFLDone.setOnClickListener(v -> {
-            if (isKeyboardShown()) {
-                safeHandler.removeCallbacks(hideRun);
-                safeHandler.removeCallbacks(showRun);
-                safeHandler.postDelayed(hideRun, HIDE_DELAY);
-            }
-        });
-
-        keyboardView.setOnTouchListener((v, event) -> event.getAction() == MotionEvent.ACTION_MOVE);
-
-        treeObserver = keyboardRootView.getViewTreeObserver();
+        treeObserver = getViewTreeObserver();
         onGlobalFocusChangeListener = new ViewTreeObserver.OnGlobalFocusChangeListener() {
             @Override
             public void onGlobalFocusChanged(View oldFocus, View newFocus) {
@@ -360,11 +403,57 @@ public class SimpleKeyboardView extends LinearLayout {
         };
     }
 
+    @SuppressLint("ClickableViewAccessibility")
+    private void initKeyboardView() {
+        keyboardRootView.setVisibility(View.GONE);
+
+        if (delDrawable == null)
+            delDrawable = mContext.getDrawable(R.drawable.keyboard_delete);
+        if (lowDrawable == null)
+            lowDrawable = mContext.getDrawable(R.drawable.keyboard_little);
+        if (upDrawable == null)
+            upDrawable = mContext.getDrawable(R.drawable.keyboard_large);
+        if (upDrawableLock == null)
+            upDrawableLock = mContext.getDrawable(R.drawable.keyboard_large_node);
+
+        keyboardView.setDelDrawable(delDrawable);
+        keyboardView.setLowDrawable(lowDrawable);
+        keyboardView.setUpDrawable(upDrawable);
+        keyboardView.setUpDrawableLock(upDrawableLock);
+
+        // setKeyboard(keyboardLetter);                         //给键盘View设置键盘
+        keyboardView.setEnabled(true);
+        keyboardView.setPreviewEnabled(false);
+        keyboardView.setOnKeyboardActionListener(listener);
+        keyboardView.setOnGestureEndListener(keyRepeater::endGesture);
+
+        mFLDone.setOnClickListener(v -> {
+            finishSecureInput();
+            if (isKeyboardShown()) {
+                safeHandler.removeCallbacks(hideRun);
+                safeHandler.removeCallbacks(showRun);
+                safeHandler.postDelayed(hideRun, HIDE_DELAY);
+            }
+        });
+
+        keyboardView.setOnTouchListener((v, event) -> event.getAction() == MotionEvent.ACTION_MOVE);
+        keyboardView.setStartupStats(startupStats);
+        if (keyboardView.isRandomDigit()) {
+            // 第一次显示数字键盘前, 在后台准备好随机排列
+            DigitShuffler.prepareNext();
+        }
+        startupStats.mark(KeyboardStartupStats.PHASE_INFLATE);
+    }
+
     public boolean isShow() {
         return isKeyboardShown();
     }
 
     private void keyboardPreHide() {
+        if (!containerInflater.isReady()) {
+            containerInflater.runUrgently(this::keyboardPreHide);
+            return;
+        }
         safeHandler.removeCallbacks(hideRun);
         safeHandler.removeCallbacks(showRun);
         getOriginalScrollLayoutPos();
@@ -374,6 +463,10 @@ public class SimpleKeyboardView extends LinearLayout {
     }
 
     private void keyboardPreShow(final EditText mEditText) {
+        if (!containerInflater.isReady()) {
+            containerInflater.runUrgently(() -> keyboardPreShow(mEditText));
+            return;
+        }
         safeHandler.removeCallbacks(showRun);
         safeHandler.removeCallbacks(hideRun);
         getOriginalScrollLayoutPos();
@@ -495,11 +588,13 @@ public class SimpleKeyboardView extends LinearLayout {
     private final Runnable hideEnd = this::doHideEnd;
 
     private void showKeyboard() {
+        startupStats.mark(KeyboardStartupStats.PHASE_FIRST_SHOW);
         Keyboard mKeyboard = getKeyboardByInputType();
-        if (mKeyboard != null && (mKeyboard == keyboardNumber) && keyboardView.isRandomDigit()) {
-            refreshDigitKeyboard(mKeyboard);
+        if (mKeyboard == null) {
+            mKeyboard = keyboardLetter;
         }
-        setKeyboard(mKeyboard == null ? keyboardLetter : mKeyboard);
+        shuffleKeysOnShow(mKeyboard);
+        setKeyboard(mKeyboard);
         keyboardRootView.setVisibility(View.VISIBLE);
         keyboardRootView.clearAnimation();
         keyboardRootView.startAnimation(showAnimation);
@@ -517,6 +612,9 @@ public class SimpleKeyboardView extends LinearLayout {
     }
 
     public void hideKeyboard() {
+        keyRepeater.stop();
+        editBatcher.flush();
+        if (keyboardRootView == null) return;
         keyboardRootView.clearAnimation();
         keyboardRootView.startAnimation(hideAnimation);
     }
@@ -658,12 +756,12 @@ public class SimpleKeyboardView extends LinearLayout {
      * name  键盘顶部name
      */
     public SimpleKeyboardView setCustomCloseIcon(@DrawableRes int resId) {
-        if (keyContainer != null) {
+        containerInflater.runWhenReady(() -> {
             ImageView closeIcon = keyContainer.findViewById(R.id.closeIcon);
             if (closeIcon != null) {
                 closeIcon.setImageResource(resId);
             }
-        }
+        });
         return this;
     }
 
@@ -672,12 +770,12 @@ public class SimpleKeyboardView extends LinearLayout {
      * name  键盘顶部name
      */
     public SimpleKeyboardView setCustomName(@NonNull String name) {
-        if (keyContainer != null) {
+        containerInflater.runWhenReady(() -> {
             TextView tvName = keyContainer.findViewById(R.id.keyboardTip);
             if (tvName != null && !TextUtils.isEmpty(name)) {
                 tvName.setText(name);
             }
-        }
+        });
         return this;
     }
 
@@ -686,17 +784,100 @@ public class SimpleKeyboardView extends LinearLayout {
      * resId 键盘顶部logo
      */
     public SimpleKeyboardView setCustomLogo(@DrawableRes int resId) {
-        if (keyContainer != null) {
+        containerInflater.runWhenReady(() -> {
             ImageView logo = keyContainer.findViewById(R.id.logo);
             if (logo != null) {
                 logo.setImageResource(resId);
             }
-        }
+        });
         return this;
     }
 
+    /**
+     * 设置数字随机排列的时机 (需要开启 random_digit), 见 {@link SafeKeyboardView#RANDOM_DIGIT_PER_SHOW} 等
+     */
+    public void setRandomDigitPolicy(int policy) {
+        containerInflater.runWhenReady(() -> keyboardView.setRandomDigitPolicy(policy));
+    }
+
+    /**
+     * 开启安全输入: 键盘输入的内容只写入键盘持有的 char[] 缓冲区, 输入框中只显示掩码字符.
+     * 输入框中已有的内容会被清空
+     *
+     * @return 该输入框的缓冲区, 通过它读取输入内容; 不再需要时调用 {@link SecureInputBuffer#wipe()}
+     */
+    @NonNull
+    public SecureInputBuffer enableSecureInput(@NonNull EditText editText) {
+        return editBatcher.enableSecureInput(editText);
+    }
+
+    /**
+     * 开启安全输入并设置流式加密, 输入的同时完成加密, 点击完成时通过
+     * {@link #setSecureInputDoneListener} 取得密文
+     */
+    @NonNull
+    public SecureInputBuffer enableSecureInput(@NonNull EditText editText,
+                                               @Nullable SafeKeyboard.SecureInputCipher cipher) {
+        SecureInputBuffer buffer = editBatcher.enableSecureInput(editText);
+        buffer.setCipher(cipher);
+        return buffer;
+    }
+
+    public void setSecureInputDoneListener(@Nullable SafeKeyboard.SecureInputDoneListener listener) {
+        editBatcher.setSecureInputListener(listener);
+    }
+
+    /**
+     * @return 输入框的安全输入缓冲区, 没有开启安全输入时为 null
+     */
+    @Nullable
+    public SecureInputBuffer getSecureInput(@NonNull EditText editText) {
+        editBatcher.flush();
+        return editBatcher.getSecureInput(editText);
+    }
+
+    /**
+     * 添加按键事件订阅者, 可以添加多个, 重复添加无效. 见 {@link SafeKeyboard.OnKeyEventListener}
+     */
+    public void addOnKeyEventListener(@NonNull SafeKeyboard.OnKeyEventListener listener) {
+        keyEvents.add(listener);
+    }
+
+    public void removeOnKeyEventListener(@NonNull SafeKeyboard.OnKeyEventListener listener) {
+        keyEvents.remove(listener);
+    }
+
+    /**
+     * 点击完成时结束当前输入框的加密, 密文交给 SecureInputDoneListener
+     */
+    private void finishSecureInput() {
+        if (mCurrentEditText == null) return;
+        editBatcher.finishSecureInput(mCurrentEditText);
+    }
+
+    /**
+     * 关闭安全输入并清零缓冲区
+     */
+    public void disableSecureInput(@NonNull EditText editText) {
+        editBatcher.disableSecureInput(editText);
+    }
+
+    /**
+     * 字母键、符号键随机排列, 开启后每次显示字母 / 符号键盘时重新排列 (高风险输入框使用)
+     */
+    public void setRandomLetterAndSymbol(boolean randomLetter, boolean randomSymbol) {
+        containerInflater.runWhenReady(() -> {
+            keyboardView.setRandomLetter(randomLetter);
+            keyboardView.setRandomSymbol(randomSymbol);
+        });
+    }
+
 
     public void release() {
+        containerInflater.release();
+        keyRepeater.endGesture();
+        editBatcher.release();
+        keyEvents.clear();
         mContext = null;
         isCapes = false;
         toBackSize = 0;
@@ -720,21 +901,10 @@ public class SimpleKeyboardView extends LinearLayout {
             mIdCardEditMap.clear();
             mIdCardEditMap = null;
         }
-        mVibrator = null;
-    }
-
-    private void initRandomDigitKeys() {
-        randomDigitKeys = new SparseArray<>();
-        List<Keyboard.Key> keys = keyboardNumber.getKeys();
-        for (Keyboard.Key key : keys) {
-            int code = key.codes[0];
-            if (code >= 48 && code <= 57)
-                randomDigitKeys.put(code, key);
-        }
     }
 
     private boolean isKeyboardShown() {
-        return keyboardRootView.getVisibility() == View.VISIBLE;
+        return keyboardRootView != null && keyboardRootView.getVisibility() == View.VISIBLE;
     }
 
     // 设置键盘点击监听
@@ -742,52 +912,53 @@ public class SimpleKeyboardView extends LinearLayout {
 
         @Override
         public void onPress(int primaryCode) {
-            if (keyboardType == 3) {
-                keyboardView.setPreviewEnabled(false);
+            // 预览策略在切换键盘布局时已经确定, 这里只按按键角色查表
+            keyboardView.applyPreviewPolicy(primaryCode);
+            int role = keyboardView.getKeyRole(primaryCode);
+            if (KeyRole.isRepeatable(role) && mCurrentEditText != null) {
+                // 可重复的按键 (删除键) 由 keyRepeater 在按下时输入并处理按住时的重复
+                keyRepeater.start(primaryCode, KeyRole.typeOf(role) == KeyRole.DELETE);
             } else {
-                keyboardView.setPreviewEnabled(!forbidPreview);
-                if (primaryCode == -1 || primaryCode == -5 || primaryCode == 32 || primaryCode == -2
-                        || primaryCode == 100860 || primaryCode == 100861 || primaryCode == -35) {
-                    keyboardView.setPreviewEnabled(false);
-                } else {
-                    keyboardView.setPreviewEnabled(!forbidPreview);
-                }
+                // 新的触摸开始, 上一次触摸可能没有收到结束事件 (如抬起前键盘已隐藏)
+                keyRepeater.endGesture();
             }
         }
 
         @Override
         public void onRelease(int primaryCode) {
+            keyRepeater.stop();
         }
 
-        @SuppressLint("MissingPermission")
         @Override
         public void onKey(int primaryCode, int[] keyCodes) {
             try {
-                Editable editable = mCurrentEditText.getText();
-                int start = mCurrentEditText.getSelectionStart();
-                int end = mCurrentEditText.getSelectionEnd();
-                if (primaryCode == Keyboard.KEYCODE_CANCEL) {
+                int roleFlags = keyboardView.getKeyRole(primaryCode);
+                int role = KeyRole.typeOf(roleFlags);
+                // 可重复的按键已经在按下时由 keyRepeater 输入, 抬起时不再重复输入;
+                // 按住后滑到其他按键上抬起时, KeyboardView 回调的是那个按键, 同样不输入
+                boolean repeated = KeyRole.isRepeatable(roleFlags) || keyRepeater.isGestureActive();
+                if (repeated) {
+                    role = KeyRole.NO_OP;
+                }
+                // 可重复的按键已经由 keyRepeater 回调过按键事件
+                boolean notify = !repeated && !keyEvents.isEmpty();
+                long eventTime = SystemClock.uptimeMillis();
+                int fieldId = mCurrentEditText == null ? View.NO_ID : mCurrentEditText.getId();
+                if (notify) {
+                    keyEvents.dispatchBefore(primaryCode, role, eventTime, fieldId);
+                }
+                if (role == KeyRole.CANCEL) {
                     // 隐藏键盘
                     safeHandler.removeCallbacks(hideRun);
                     safeHandler.removeCallbacks(showRun);
                     safeHandler.post(hideRun/*, HIDE_DELAY*/);
-                } else if (primaryCode == Keyboard.KEYCODE_DELETE || primaryCode == -35) {
-
-                    // 回退键,删除字符
-                    if (editable != null && editable.length() > 0) {
-                        if (start == end) { //光标开始和结束位置相同, 即没有选中内容
-                            editable.delete(start - 1, start);
-                        } else { //光标开始和结束位置不同, 即选中EditText中的内容
-                            editable.delete(start, end);
-                        }
-                    }
-                } else if (primaryCode == Keyboard.KEYCODE_SHIFT) {
+                } else if (role == KeyRole.DELETE) {
+                    // 回退键,删除字符 (有选中内容时删除选中内容), 同一帧内的修改合并提交
+                    editBatcher.delete(mCurrentEditText);
+                } else if (role == KeyRole.SHIFT) {
                     // 大小写切换
                     changeKeyboardLetterCase();
-                    // 重新setKeyboard, 进而系统重新加载, 键盘内容才会变化(切换大小写)
-                    keyboardType = 1;
-                    switchKeyboard();
-                } else if (primaryCode == Keyboard.KEYCODE_MODE_CHANGE) {
+                } else if (role == KeyRole.MODE_CHANGE) {
                     // 数字与字母键盘互换
                     if (keyboardType == 3) { //当前为数字键盘
                         keyboardType = 1;
@@ -795,7 +966,7 @@ public class SimpleKeyboardView extends LinearLayout {
                         keyboardType = 3;
                     }
                     switchKeyboard();
-                } else if (primaryCode == 100860) {
+                } else if (role == KeyRole.SYMBOL_SWITCH) {
                     // 字母与符号切换
                     if (keyboardType == 2) { //当前是符号键盘
                         keyboardType = 1;
@@ -803,29 +974,30 @@ public class SimpleKeyboardView extends LinearLayout {
                         keyboardType = 2;
                     }
                     switchKeyboard();
-                } else if (primaryCode == 100861) {
+                } else if (role == KeyRole.NO_OP) {
                     // TODO... 这里啥也不干
                 } else {
-                    // 输入键盘值
-                    // editable.insert(start, Character.toString((char) primaryCode));
-                    editable.replace(start, end, Character.toString((char) primaryCode));
+                    // 输入键盘值 (有选中内容时替换选中内容), 同一帧内的修改合并提交
+                    editBatcher.insert(mCurrentEditText, (char) primaryCode);
                     if (mEditLastKeyboardTypeArray.get(mCurrentEditText.getId(), 1) == 1 && !isCapLock && isCapes) {
                         isCapes = isCapLock = false;
-                        toLowerCase();
-                        keyboardView.setCap(isCapes);
-                        keyboardView.setCapLock(isCapLock);
-                        switchKeyboard();
+                        applyLetterCase();
+                    }
+                    if (keyboardView.getKeyboard() == keyboardNumber && keyboardView.isRandomDigit()
+                            && digitShuffler.onKey(keyboardNumber, keyboardView.getRandomDigitPolicy(),
+                            mCurrentEditText.getId())) {
+                        keyboardView.invalidateDigitKeys();
                     }
                 }
+                if (notify) {
+                    // 有订阅者时立即提交, 保证 onAfterKey 时输入框已经修改
+                    editBatcher.flush();
+                    keyEvents.dispatchAfter(primaryCode, role, eventTime, fieldId);
+                }
 
                 // 添加按键震动
-                if (keyboardView != null && keyboardView.isVibrateEnable()) {
-                    if (mVibrator == null) {
-                        mVibrator = (Vibrator) mContext.getSystemService(Context.VIBRATOR_SERVICE);
-                    }
-                    if (mVibrator != null) {
-                        mVibrator.vibrate(20);
-                    }
+                if (keyboardView != null) {
+                    keyboardView.performKeyHaptic();
                 }
 
             } catch (Exception e) {
@@ -856,12 +1028,6 @@ public class SimpleKeyboardView extends LinearLayout {
     };
 
     private void changeKeyboardLetterCase() {
-        if (!isCapes) {
-            // 为小写时, 改为大写.
-            toUpperCase();
-        } else if (isCapLock) {
-            toLowerCase();
-        }
         if (isCapLock) {
             isCapLock = isCapes = false;
         } else if (isCapes) {
@@ -870,42 +1036,36 @@ public class SimpleKeyboardView extends LinearLayout {
             isCapes = true;
             isCapLock = false;
         }
-        keyboardView.setCap(isCapes);
-        keyboardView.setCapLock(isCapLock);
-    }
-
-    private void toLowerCase() {
-        List<Keyboard.Key> keyList = keyboardLetter.getKeys();
-        for (Keyboard.Key key : keyList) {
-            if (key.label != null && isUpCaseLetter(key.label.toString())) {
-                key.label = key.label.toString().toLowerCase();
-                key.codes[0] += 32;
-            }
-        }
+        applyLetterCase();
     }
 
-    private void toUpperCase() {
-        List<Keyboard.Key> keyList = keyboardLetter.getKeys();
-        for (Keyboard.Key key : keyList) {
-            if (key.label != null && isLowCaseLetter(key.label.toString())) {
-                key.label = key.label.toString().toUpperCase();
-                key.codes[0] -= 32;
-            }
+    /**
+     * 把大小写状态应用到字母键盘: 按大小写表替换字母键的 label 和按键值, 只重绘字母键和大小写键, 不重新 setKeyboard
+     */
+    private void applyLetterCase() {
+        SafeKeyboardLayout letter = keyboardLetter;
+        keyboardView.setCap(isCapes);
+        keyboardView.setCapLock(isCapLock);
+        letter.setUpperCase(isCapes);
+        if (keyboardView.getKeyboard() == letter) {
+            keyboardView.invalidateLetterCase();
+        } else {
+            setKeyboard(letter);
         }
     }
 
     private void switchKeyboard() {
         switch (keyboardType) {
             case 1:
+                shuffleKeysOnShow(keyboardLetter);
                 setKeyboard(keyboardLetter);
                 break;
             case 2:
+                shuffleKeysOnShow(keyboardSymbol);
                 setKeyboard(keyboardSymbol);
                 break;
             case 3:
-                if (keyboardView.isRandomDigit()) {
-                    refreshDigitKeyboard(keyboardNumber);
-                }
+                shuffleKeysOnShow(keyboardNumber);
                 setKeyboard(keyboardNumber);
                 break;
             default:
@@ -927,36 +1087,27 @@ public class SimpleKeyboardView extends LinearLayout {
         }
         mEditLastKeyboardTypeArray.put(mCurrentEditText.getId(), type);
         keyboardType = type;
+        keyboardView.setLayoutPreviewEnabled(type != 3 && !forbidPreview);
         keyboardView.setKeyboard(keyboard);
         // hideSystemKeyBoard(mCurrentEditText);
     }
 
-    private boolean isLowCaseLetter(String str) {
-        String letters = "abcdefghijklmnopqrstuvwxyz";
-        return letters.contains(str);
-    }
-
-    private boolean isUpCaseLetter(String str) {
-        String letters = "ABCDEFGHIJKLMNOPQRSTUVWXYZ";
-        return letters.contains(str);
-    }
-
-    private void refreshDigitKeyboard(Keyboard keyboard) {
-        if (keyboard != null) {
-            SparseArray<Keyboard.Key> randomKeys;
-            randomKeys = randomDigitKeys;
-            HashSet<Integer> set = new HashSet<>();
-            while (set.size() < 10) {
-                int num = (int) (Math.random() * 10);
-                if (set.add(num)) {
-                    // set.size() - 1 表示目前是第几个数字按键
-                    Keyboard.Key key = randomKeys.get(set.size() - 1 + 48);
-                    key.label = num + "";
-                    key.codes[0] = 48 + num;
-                }
+    /**
+     * 键盘显示时, 按 random_digit / random_letter / random_symbol 重新排列按键
+     */
+    private void shuffleKeysOnShow(Keyboard keyboard) {
+        if (keyboard == keyboardNumber) {
+            if (keyboardView.isRandomDigit()) {
+                digitShuffler.onShow(keyboardNumber, keyboardView.getRandomDigitPolicy(), mCurrentEditText.getId());
+            }
+        } else if (keyboard == keyboardLetter) {
+            if (keyboardView.isRandomLetter()) {
+                keyboardLetter.shuffleLetters();
+            }
+        } else if (keyboard == keyboardSymbol) {
+            if (keyboardView.isRandomSymbol()) {
+                keyboardSymbol.shuffleCharKeys();
             }
-        } else {
-            Log.w(TAG, "Refresh Digit ERROR! Keyboard is null");
         }
     }
 }
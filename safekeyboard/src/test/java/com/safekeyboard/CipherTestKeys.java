@@ -0,0 +1,46 @@
+package com.safekeyboard;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * 加密相关测试共用的 key 和解密方法: 用固定的 AES key 代替 AndroidKeyStore 中的 key
+ */
+final class CipherTestKeys {
+
+    static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    static final Key KEY = new SecretKeySpec(new byte[]{
+            1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16}, "AES");
+    static final int IV_LENGTH = 12;
+    private static final int TAG_BITS = 128;
+
+    private CipherTestKeys() {
+    }
+
+    static JcaSecureInputCipher newCipher() throws GeneralSecurityException {
+        return new JcaSecureInputCipher(TRANSFORMATION, () -> KEY, 8);
+    }
+
+    /**
+     * @param output IV + 密文, 即 {@link JcaSecureInputCipher} 的输出
+     */
+    static byte[] decrypt(byte[] output) throws GeneralSecurityException {
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, KEY, new GCMParameterSpec(TAG_BITS, output, 0, IV_LENGTH));
+        return cipher.doFinal(output, IV_LENGTH, output.length - IV_LENGTH);
+    }
+
+    static String decryptToString(byte[] output) throws GeneralSecurityException {
+        return new String(decrypt(output), StandardCharsets.UTF_8);
+    }
+
+    static byte[] iv(byte[] output) {
+        return Arrays.copyOf(output, IV_LENGTH);
+    }
+}
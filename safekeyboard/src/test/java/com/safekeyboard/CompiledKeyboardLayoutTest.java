@@ -0,0 +1,38 @@
+package com.safekeyboard;
+
+import android.content.res.Resources;
+import android.inputmethodservice.Keyboard;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class CompiledKeyboardLayoutTest {
+
+    @Test
+    public void fractionsResolveAgainstTheSameBaseAsKeyboard() {
+        // 两行, 每行一个按键: keyWidth 50%p, horizontalGap 1%p, keyHeight 10%p, verticalGap 2%p
+        CompiledKeyboardLayout layout = new CompiledKeyboardLayout(5000, 200,
+                new int[]{1, 1000, 200, 1, 1000, 200},
+                new int[]{5000, 100, 1000, 0, 5000, 100, 1000, 0},
+                new int[][]{{49}, {50}},
+                new String[]{"1", "2"}, null, new int[0]);
+        Resources res = TestLayouts.resources();
+        List<Keyboard.Key> keys = new ArrayList<>();
+        layout.inflateKeys(res, new Keyboard.Row(null), keys, new ArrayList<Keyboard.Key>());
+
+        int gap = Math.round(TestLayouts.DISPLAY_WIDTH * 0.01f);
+        int keyWidth = Math.round(TestLayouts.DISPLAY_WIDTH * 0.5f);
+        int keyHeight = Math.round(TestLayouts.DISPLAY_HEIGHT * 0.1f);
+        int verticalGap = Math.round(TestLayouts.DISPLAY_WIDTH * 0.02f);
+        assertEquals(gap, keys.get(0).x);
+        assertEquals(keyWidth, keys.get(0).width);
+        assertEquals(keyHeight, keys.get(0).height);
+        assertEquals(0, keys.get(0).y);
+        assertEquals(verticalGap + keyHeight, keys.get(1).y);
+        assertEquals((verticalGap + keyHeight) * 2 - verticalGap, layout.getHeight(res));
+    }
+}
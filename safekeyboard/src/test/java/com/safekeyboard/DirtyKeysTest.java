@@ -0,0 +1,55 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * SafeKeyboardView.invalidateKey 标记的按键即 onDraw 在图层上重绘的按键
+ */
+public class DirtyKeysTest {
+
+    @Test
+    public void singleKeyInvalidationDrawsOnlyThatKey() {
+        for (String name : TestLayouts.names()) {
+            List<Keyboard.Key> keys = TestLayouts.inflate(name);
+            assertTrue(name, keys.size() > 0);
+            DirtyKeys dirtyKeys = new DirtyKeys();
+            for (int i = 0; i < keys.size(); i++) {
+                dirtyKeys.mark(i, keys.size());
+                assertEquals(name + " key " + i, 1, dirtyKeys.size());
+                assertEquals(name + " key " + i, i, dirtyKeys.get(0));
+                dirtyKeys.clear();
+                assertEquals(name + " key " + i, 0, dirtyKeys.size());
+            }
+        }
+    }
+
+    @Test
+    public void pressAndReleaseInOneFrameDrawsKeyOnce() {
+        DirtyKeys dirtyKeys = new DirtyKeys();
+        dirtyKeys.mark(3, 10);
+        dirtyKeys.mark(3, 10);
+        assertEquals(1, dirtyKeys.size());
+        dirtyKeys.mark(5, 10);
+        assertEquals(2, dirtyKeys.size());
+        assertEquals(3, dirtyKeys.get(0));
+        assertEquals(5, dirtyKeys.get(1));
+    }
+
+    @Test
+    public void layoutChangeRequestsFullRedraw() {
+        DirtyKeys dirtyKeys = new DirtyKeys();
+        assertTrue(dirtyKeys.mark(1, 10));
+        assertFalse(dirtyKeys.mark(2, 10));
+        assertTrue(dirtyKeys.mark(4, 12));
+        assertEquals(1, dirtyKeys.size());
+        assertEquals(4, dirtyKeys.get(0));
+    }
+}
@@ -0,0 +1,65 @@
+package com.safekeyboard;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class JcaSecureInputCipherTest {
+
+    private static byte[] encrypt(JcaSecureInputCipher cipher, String text) {
+        cipher.reset();
+        for (int i = 0; i < text.length(); i++) {
+            cipher.update(text.charAt(i));
+        }
+        int size = cipher.doFinal();
+        return Arrays.copyOf(cipher.getOutput(), size);
+    }
+
+    private static void assertRoundTrip(String text) throws GeneralSecurityException {
+        byte[] output = encrypt(CipherTestKeys.newCipher(), text);
+        // 与 String.getBytes 一致: 单独的代理字符编码为 '?'
+        assertArrayEquals(text.getBytes(StandardCharsets.UTF_8), CipherTestKeys.decrypt(output));
+    }
+
+    @Test
+    public void encodesUtf8() throws GeneralSecurityException {
+        assertRoundTrip("");
+        assertRoundTrip("abc123");
+        assertRoundTrip("é中文");
+        assertRoundTrip("a😀b");
+    }
+
+    @Test
+    public void loneSurrogatesBecomeQuestionMarks() throws GeneralSecurityException {
+        assertRoundTrip("a\uD83Db");            // 高位代理后面不是低位代理
+        assertRoundTrip("a\uD83D");             // 末尾单独的高位代理
+        assertRoundTrip("\uDE00a");             // 单独的低位代理
+        assertRoundTrip("\uD83D😀");  // 两个高位代理, 只有第二个成对
+    }
+
+    @Test
+    public void eachResetUsesFreshIv() throws GeneralSecurityException {
+        JcaSecureInputCipher cipher = CipherTestKeys.newCipher();
+        byte[] first = encrypt(cipher, "1234");
+        byte[] second = encrypt(cipher, "1234");
+        assertFalse(Arrays.equals(CipherTestKeys.iv(first), CipherTestKeys.iv(second)));
+        assertFalse(Arrays.equals(first, second));
+        assertEquals("1234", CipherTestKeys.decryptToString(first));
+        assertEquals("1234", CipherTestKeys.decryptToString(second));
+    }
+
+    @Test
+    public void outputGrowsBeyondMaxChars() throws GeneralSecurityException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 200; i++) {
+            text.append("中");
+        }
+        assertRoundTrip(text.toString());
+    }
+}
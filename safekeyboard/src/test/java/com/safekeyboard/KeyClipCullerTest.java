@@ -0,0 +1,53 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 整体重绘和不使用图层 (内存不足) 时按裁剪区域筛选按键; 图层完整时单个按键的重绘见 {@link DirtyKeysTest}
+ */
+public class KeyClipCullerTest {
+
+    @Test
+    public void singleKeyClipSelectsOnlyThatKey() {
+        for (String name : TestLayouts.names()) {
+            List<Keyboard.Key> keys = TestLayouts.inflate(name);
+            assertTrue(name, keys.size() > 0);
+            int[] out = new int[keys.size()];
+            for (int i = 0; i < keys.size(); i++) {
+                Keyboard.Key key = keys.get(i);
+                int count = KeyClipCuller.select(keys, key.x, key.y, key.x + key.width, key.y + key.height, out);
+                assertEquals(name + " key " + i, 1, count);
+                assertEquals(name + " key " + i, i, out[0]);
+            }
+        }
+    }
+
+    @Test
+    public void fullClipSelectsAllKeys() {
+        for (String name : TestLayouts.names()) {
+            List<Keyboard.Key> keys = TestLayouts.inflate(name);
+            int[] out = new int[keys.size()];
+            int count = KeyClipCuller.select(keys, 0, 0,
+                    TestLayouts.DISPLAY_WIDTH, TestLayouts.DISPLAY_HEIGHT, out);
+            assertEquals(name, keys.size(), count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(name, i, out[i]);
+            }
+        }
+    }
+
+    @Test
+    public void emptyClipSelectsNothing() {
+        List<Keyboard.Key> keys = TestLayouts.inflate("keyboard_letter");
+        int[] out = new int[keys.size()];
+        assertEquals(0, KeyClipCuller.select(keys, 10, 10, 10, 200, out));
+        assertEquals(0, KeyClipCuller.select(keys, 10, 10, 200, 10, out));
+    }
+}
@@ -0,0 +1,108 @@
+package com.safekeyboard;
+
+import android.view.Choreographer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 按回调顺序模拟 KeyboardView 的一次触摸: onPress -> (抬起时) onKey -> onRelease -> 触摸结束
+ */
+public class KeyRepeaterTest {
+
+    private static final int DELETE = -5;
+
+    private final ManualScheduler scheduler = new ManualScheduler();
+    private int repeats;
+    private KeyRepeater repeater;
+
+    @Before
+    public void setUp() {
+        repeater = new KeyRepeater(new KeyRepeater.Callback() {
+            @Override
+            public void onRepeat(int code, int count) {
+                repeats += count;
+            }
+
+            @Override
+            public void onClearAll(int code) {
+            }
+        }, scheduler);
+    }
+
+    @Test
+    public void slideOffKeyIsDroppedUntilGestureEnds() {
+        repeater.start(DELETE, true);
+        assertEquals(1, repeats);
+        scheduler.runFrame();
+        assertNotNull("repeat keeps running while held", scheduler.pending);
+
+        // 按住删除键滑到字母上抬起: KeyboardView 先回调字母的 onKey, 再回调 onRelease
+        assertTrue("onKey of the slid-to key must be dropped", repeater.isGestureActive());
+        repeater.stop();
+        assertNull(scheduler.pending);
+        assertTrue(repeater.isGestureActive());
+
+        repeater.endGesture();
+        assertFalse(repeater.isGestureActive());
+        assertEquals(1, repeats);
+    }
+
+    @Test
+    public void cancelledGestureStopsRepeat() {
+        repeater.start(DELETE, true);
+        scheduler.runFrame();
+        // 触摸被父 View 拦截, 没有 onRelease
+        repeater.endGesture();
+        assertNull(scheduler.pending);
+        assertFalse(repeater.isGestureActive());
+    }
+
+    @Test
+    public void stoppedRepeaterIgnoresQueuedFrame() {
+        repeater.start(DELETE, true);
+        Choreographer.FrameCallback queued = scheduler.pending;
+        repeater.endGesture();
+        queued.doFrame(0);
+        assertNull(scheduler.pending);
+        assertEquals(1, repeats);
+    }
+
+    @Test
+    public void newGestureEndsMissedOne() {
+        repeater.start(DELETE, true);
+        // 键盘在抬起前隐藏, 没有收到触摸结束; 下一次按下普通按键时结束上一次
+        repeater.endGesture();
+        assertFalse(repeater.isGestureActive());
+        repeater.start(DELETE, true);
+        assertTrue(repeater.isGestureActive());
+        assertEquals(2, repeats);
+    }
+
+    private static final class ManualScheduler implements KeyRepeater.FrameScheduler {
+
+        Choreographer.FrameCallback pending;
+
+        @Override
+        public void postFrameCallback(Choreographer.FrameCallback callback) {
+            pending = callback;
+        }
+
+        @Override
+        public void removeFrameCallback(Choreographer.FrameCallback callback) {
+            if (pending == callback) pending = null;
+        }
+
+        void runFrame() {
+            Choreographer.FrameCallback callback = pending;
+            pending = null;
+            if (callback != null) callback.doFrame(0);
+        }
+    }
+}
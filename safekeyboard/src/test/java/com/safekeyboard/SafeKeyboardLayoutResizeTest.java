@@ -0,0 +1,48 @@
+package com.safekeyboard;
+
+import android.inputmethodservice.Keyboard;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SafeKeyboardLayoutResizeTest {
+
+    // 弹窗中 SimpleKeyboardView 的宽度小于屏幕宽度
+    private static final int NARROW_WIDTH = 800;
+
+    @Test
+    public void keysFitNarrowerView() {
+        for (String name : TestLayouts.names()) {
+            List<Keyboard.Key> keys = TestLayouts.inflate(name);
+            assertTrue(name, SafeKeyboardLayout.fitKeysToWidth(keys, NARROW_WIDTH));
+            for (int i = 0; i < keys.size(); i++) {
+                Keyboard.Key key = keys.get(i);
+                assertTrue(name + " key " + i, key.x >= 0);
+                assertTrue(name + " key " + i, key.width > 0);
+                assertTrue(name + " key " + i, key.x + key.width <= NARROW_WIDTH);
+                if (i > 0 && keys.get(i - 1).y == key.y) {
+                    Keyboard.Key left = keys.get(i - 1);
+                    assertTrue(name + " key " + i + " overlaps", left.x + left.width <= key.x);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void keysUnchangedWhenViewIsWideEnough() {
+        for (String name : TestLayouts.names()) {
+            List<Keyboard.Key> keys = TestLayouts.inflate(name);
+            List<Keyboard.Key> expected = TestLayouts.inflate(name);
+            assertFalse(name, SafeKeyboardLayout.fitKeysToWidth(keys, TestLayouts.DISPLAY_WIDTH));
+            for (int i = 0; i < keys.size(); i++) {
+                assertEquals(name + " key " + i, expected.get(i).x, keys.get(i).x);
+                assertEquals(name + " key " + i, expected.get(i).width, keys.get(i).width);
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package com.safekeyboard;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.security.GeneralSecurityException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class SecureInputBufferTest {
+
+    private SecureInputBuffer buffer;
+
+    @Before
+    public void setUp() throws GeneralSecurityException {
+        buffer = new SecureInputBuffer();
+        buffer.setCipher(CipherTestKeys.newCipher());
+    }
+
+    private void replace(int start, int end, String text) {
+        buffer.replace(start, end, text.toCharArray(), text.length());
+    }
+
+    private void assertContent(String expected) throws GeneralSecurityException {
+        assertEquals(expected, new String(buffer.toCharArray()));
+        assertEquals(expected, CipherTestKeys.decryptToString(buffer.doFinal()));
+    }
+
+    @Test
+    public void appendIsEncryptedAsTyped() throws GeneralSecurityException {
+        replace(0, 0, "a");
+        replace(1, 1, "bc");
+        assertContent("abc");
+    }
+
+    @Test
+    public void deleteReencrypts() throws GeneralSecurityException {
+        replace(0, 0, "abcd");
+        replace(3, 4, "");
+        assertContent("abc");
+        replace(0, 1, "");
+        assertContent("bc");
+    }
+
+    @Test
+    public void middleReplaceReencrypts() throws GeneralSecurityException {
+        replace(0, 0, "abcd");
+        replace(1, 3, "XYZ");
+        assertContent("aXYZd");
+    }
+
+    @Test
+    public void typingAfterDoFinalContinues() throws GeneralSecurityException {
+        replace(0, 0, "pass");
+        assertContent("pass");
+        replace(4, 4, "word");
+        assertContent("password");
+    }
+
+    @Test
+    public void growsBeyondInitialCapacity() throws GeneralSecurityException {
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < 100; i++) {
+            char c = (char) ('a' + i % 26);
+            replace(i, i, String.valueOf(c));
+            expected.append(c);
+        }
+        replace(100, 100, "中文");
+        expected.append("中文");
+        assertContent(expected.toString());
+    }
+
+    @Test
+    public void eachDoFinalUsesFreshIv() throws GeneralSecurityException {
+        replace(0, 0, "same");
+        byte[] first = buffer.doFinal();
+        byte[] second = buffer.doFinal();
+        assertEquals("same", CipherTestKeys.decryptToString(first));
+        assertEquals("same", CipherTestKeys.decryptToString(second));
+        assertFalse(java.util.Arrays.equals(CipherTestKeys.iv(first), CipherTestKeys.iv(second)));
+    }
+
+    @Test
+    public void wipeZeroesStorage() throws Exception {
+        replace(0, 0, "secret");
+        replace(6, 6, "!");
+        buffer.wipe();
+        assertEquals(0, buffer.length());
+        assertArrayEquals(new char[((char[]) storage()).length], (char[]) storage());
+        assertContent("");
+        replace(0, 0, "new");
+        assertContent("new");
+    }
+
+    @Test
+    public void deletedCharsAreZeroed() throws Exception {
+        replace(0, 0, "secret");
+        replace(2, 6, "");
+        char[] chars = (char[]) storage();
+        for (int i = 2; i < chars.length; i++) {
+            assertEquals("index " + i, '\0', chars[i]);
+        }
+    }
+
+    @Test
+    public void cipherFailureWipesOnDoFinal() throws Exception {
+        boolean[] broken = {false};
+        buffer.setCipher(new JcaSecureInputCipher(CipherTestKeys.TRANSFORMATION, () -> {
+            if (broken[0]) throw new GeneralSecurityException("key invalidated");
+            return CipherTestKeys.KEY;
+        }, 8));
+        replace(0, 0, "secret");
+        assertContent("secret");
+        // 之后再 doFinal 需要重新开始加密, 此时 key 已失效
+        broken[0] = true;
+        try {
+            buffer.doFinal();
+            fail("doFinal should fail when the key is gone");
+        } catch (IllegalStateException expected) {
+            // JcaSecureInputCipher 把 GeneralSecurityException 包装为 IllegalStateException
+        }
+        assertEquals(0, buffer.length());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void doFinalWithoutCipherFails() {
+        buffer.setCipher(null);
+        buffer.doFinal();
+    }
+
+    private Object storage() throws ReflectiveOperationException {
+        Field field = SecureInputBuffer.class.getDeclaredField("chars");
+        field.setAccessible(true);
+        return field.get(buffer);
+    }
+}
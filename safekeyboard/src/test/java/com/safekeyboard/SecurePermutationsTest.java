@@ -0,0 +1,41 @@
+package com.safekeyboard;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SecurePermutationsTest {
+
+    @Test
+    public void returnsPermutation() {
+        for (int n : new int[]{0, 1, 2, 10, 26, 32}) {
+            int[] perm = SecurePermutations.next(n);
+            assertEquals(n, perm.length);
+            boolean[] seen = new boolean[n];
+            for (int value : perm) {
+                assertTrue("n=" + n + " value " + value, value >= 0 && value < n && !seen[value]);
+                seen[value] = true;
+            }
+        }
+    }
+
+    @Test
+    public void everyDigitReachesEveryPosition() {
+        int runs = 1000;
+        int[][] counts = new int[10][10];
+        for (int r = 0; r < runs; r++) {
+            int[] perm = SecurePermutations.next(10);
+            for (int position = 0; position < 10; position++) {
+                counts[position][perm[position]]++;
+            }
+        }
+        // 期望值 100, 标准差约 9.5; 范围足够宽, 不会因为随机波动失败
+        for (int position = 0; position < 10; position++) {
+            for (int digit = 0; digit < 10; digit++) {
+                int count = counts[position][digit];
+                assertTrue("position " + position + " digit " + digit + ": " + count, count > 40 && count < 160);
+            }
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.safekeyboard;
+
+import android.content.res.Resources;
+import android.inputmethodservice.Keyboard;
+import android.util.DisplayMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 单元测试用的键盘布局: 枚举 res/xml 下的全部 keyboard_*.xml,
+ * 用编译期生成的 {@link CompiledKeyboardLayouts} 按固定的屏幕尺寸创建按键
+ */
+final class TestLayouts {
+
+    static final int DISPLAY_WIDTH = 1080;
+    static final int DISPLAY_HEIGHT = 1920;
+    static final float DENSITY = 3f;
+
+    private static final Pattern DIMEN = Pattern.compile(
+            "<dimen name=\"(\\w+)\">([\\d.]+)(dp|dip|px)</dimen>");
+
+    private TestLayouts() {
+    }
+
+    /**
+     * @return 全部布局的资源名, 如 "keyboard_letter"
+     */
+    static List<String> names() {
+        File[] files = new File(resDir(), "xml").listFiles();
+        List<String> names = new ArrayList<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                if (name.startsWith("keyboard_") && name.endsWith(".xml")) {
+                    names.add(name.substring(0, name.length() - ".xml".length()));
+                }
+            }
+        }
+        if (names.isEmpty()) {
+            throw new IllegalStateException("No keyboard layouts in " + resDir());
+        }
+        Collections.sort(names);
+        return names;
+    }
+
+    static List<Keyboard.Key> inflate(String name) {
+        CompiledKeyboardLayout layout = CompiledKeyboardLayouts.get(resId(R.xml.class, name));
+        if (layout == null) {
+            throw new IllegalStateException("Layout not compiled: " + name);
+        }
+        List<Keyboard.Key> keys = new ArrayList<>();
+        layout.inflateKeys(resources(), new Keyboard.Row(null), keys, new ArrayList<Keyboard.Key>());
+        return keys;
+    }
+
+    /**
+     * @return 屏幕尺寸为 DISPLAY_WIDTH * DISPLAY_HEIGHT 的 Resources, dimen 读取自 values/dimens.xml
+     */
+    static Resources resources() {
+        return new FakeResources();
+    }
+
+    private static File resDir() {
+        // Gradle 以模块目录为工作目录运行单元测试, 在 IDE 中可能是工程根目录
+        File dir = new File("src/main/res");
+        return dir.isDirectory() ? dir : new File("safekeyboard/src/main/res");
+    }
+
+    private static int resId(Class<?> type, String name) {
+        try {
+            return type.getField(name).getInt(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("No resource " + type.getSimpleName() + "." + name, e);
+        }
+    }
+
+    /**
+     * 只实现 CompiledKeyboardLayout 用到的方法, dimen 直接读取 values/dimens.xml
+     */
+    private static final class FakeResources extends Resources {
+
+        private final DisplayMetrics metrics = new DisplayMetrics();
+        private final Map<Integer, Integer> dimens = new HashMap<>();
+
+        FakeResources() {
+            super(null, null, null);
+            metrics.widthPixels = DISPLAY_WIDTH;
+            metrics.heightPixels = DISPLAY_HEIGHT;
+            metrics.density = DENSITY;
+            loadDimens();
+        }
+
+        private void loadDimens() {
+            String xml;
+            try {
+                xml = new String(Files.readAllBytes(new File(resDir(), "values/dimens.xml").toPath()),
+                        StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            Map<String, Integer> byName = new HashMap<>();
+            Matcher m = DIMEN.matcher(xml);
+            while (m.find()) {
+                float value = Float.parseFloat(m.group(2));
+                byName.put(m.group(1), (int) ("px".equals(m.group(3)) ? value : value * DENSITY));
+            }
+            for (Field field : R.dimen.class.getFields()) {
+                Integer px = byName.get(field.getName());
+                if (px != null) {
+                    dimens.put(resId(R.dimen.class, field.getName()), px);
+                }
+            }
+        }
+
+        @Override
+        public DisplayMetrics getDisplayMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public int getDimensionPixelOffset(int id) {
+            Integer px = dimens.get(id);
+            if (px == null) {
+                throw new NotFoundException("dimen 0x" + Integer.toHexString(id));
+            }
+            return px;
+        }
+
+        @Override
+        public CharSequence getText(int id) {
+            return "";
+        }
+    }
+}